@@ -0,0 +1,108 @@
+package org.example;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * One simulated user. Sent texts carry the time the message was due to be sent, so broadcast latency
+ * includes any delay the sender itself suffered and is not understated when the server stalls.
+ */
+public class BenchClient implements TCPConnectionListener {
+    private static final String PREFIX = "bench:";
+    private static final String BOT_NAME = "SERVER";
+
+    private final String name;
+    private final String codec;
+    private final LatencyHistogram latency;
+    private final LongAdder received;
+    private final CountDownLatch joined;
+    private volatile long measureFromNanos = Long.MAX_VALUE;
+    private volatile boolean disconnected;
+    private TCPConnection connection;
+
+    public BenchClient(String name, String codec, LatencyHistogram latency, LongAdder received) {
+        this.name = name;
+        this.codec = codec;
+        this.latency = latency;
+        this.received = received;
+        this.joined = new CountDownLatch(1);
+    }
+
+    /**
+     * @return false if the server did not greet the client in time
+     */
+    public boolean connect(String host, int port, Executor executor, long timeoutMillis)
+            throws IOException, InterruptedException {
+        connection = new BlockingTCPConnection(this, new Socket(host, port), executor);
+        connection.setName(name);
+        return joined.await(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public void measureFrom(long nanos) {
+        this.measureFromNanos = nanos;
+    }
+
+    public void send(long dueNanos, String padding) {
+        connection.sendMessage(Message.builder()
+                .name(name)
+                .text(PREFIX + dueNanos + ":" + padding)
+                .time(connection.getTime())
+                .build());
+    }
+
+    public boolean isDisconnected() {
+        return disconnected;
+    }
+
+    public void disconnect() {
+        if (connection != null) {
+            connection.disconnect();
+        }
+    }
+
+    @Override
+    public void onConnectionReady(TCPConnection tcpConnection) {
+        tcpConnection.sendMessage(Message.builder()
+                .name(name)
+                .text("connected")
+                .time(tcpConnection.getTime())
+                .codec(codec)
+                .features(Feature.all())
+                .build());
+    }
+
+    @Override
+    public void onReceiveMessage(TCPConnection tcpConnection, Message message) {
+        long now = System.nanoTime();
+        if (message.getCodec() != null) {
+            MessageCodecs.forName(message.getCodec()).ifPresent(tcpConnection::setCodec);
+            return;
+        }
+        String text = message.getText();
+        if (text == null) {
+            return;
+        }
+        if (text.startsWith(PREFIX)) {
+            long dueNanos = Long.parseLong(text.substring(PREFIX.length(), text.indexOf(':', PREFIX.length())));
+            if (dueNanos >= measureFromNanos) {
+                latency.record(now - dueNanos);
+                received.increment();
+            }
+        } else if (BOT_NAME.equals(message.getName()) && text.equals("Client " + name + " connected")) {
+            joined.countDown();
+        }
+    }
+
+    @Override
+    public void onDisconnect(TCPConnection tcpConnection) {
+        disconnected = true;
+    }
+
+    @Override
+    public void onException(TCPConnection tcpConnection, Exception e) {
+    }
+}
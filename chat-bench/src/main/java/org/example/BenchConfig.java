@@ -0,0 +1,56 @@
+package org.example;
+
+import lombok.Builder;
+import lombok.Getter;
+
+@Getter
+@Builder(toBuilder = true)
+public class BenchConfig {
+    @Builder.Default
+    private final String host = "127.0.0.1";
+    @Builder.Default
+    private final int port = 9999;
+    /**
+     * Starts a server of this mode (blocking, virtual, nio) in the benchmark JVM, none to use a running one.
+     */
+    @Builder.Default
+    private final String embeddedServerMode = "none";
+    /**
+     * Embedded servers form a cluster of this many nodes, on consecutive ports from port, linked over
+     * consecutive ports from clusterPort.
+     */
+    @Builder.Default
+    private final int embeddedNodes = 1;
+    @Builder.Default
+    private final int clusterPort = 7000;
+    /**
+     * Comma-separated host:port of running cluster nodes to spread the clients over, empty to use host
+     * and port.
+     */
+    @Builder.Default
+    private final String nodes = "";
+    @Builder.Default
+    private final int clients = 200;
+    @Builder.Default
+    private final int connectThreads = 16;
+    /**
+     * How many of the clients send; every client receives.
+     */
+    @Builder.Default
+    private final int senders = 20;
+    /**
+     * Total send rate of all senders.
+     */
+    @Builder.Default
+    private final int messagesPerSecond = 1000;
+    @Builder.Default
+    private final int payloadBytes = 64;
+    @Builder.Default
+    private final String codec = "binary";
+    @Builder.Default
+    private final boolean virtualThreads = false;
+    @Builder.Default
+    private final int warmupSeconds = 5;
+    @Builder.Default
+    private final int durationSeconds = 30;
+}
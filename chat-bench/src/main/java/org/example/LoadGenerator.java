@@ -0,0 +1,253 @@
+package org.example;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Headless load test over loopback: connects the clients, then sends at a fixed total rate from the
+ * senders (open loop, the schedule does not wait for the server) and reports connection setup and
+ * end-to-end broadcast latency. Every client is in the default room, so each sent message is
+ * expected to reach all clients. Clients are spread round-robin over the nodes of a cluster, so running
+ * the same load against more nodes shows how aggregate delivery scales.
+ */
+public class LoadGenerator {
+    private static final Logger logger = LoggerFactory.getLogger(LoadGenerator.class);
+    private static final long CONNECT_TIMEOUT_MILLIS = 30_000;
+    private static final long DRAIN_MILLIS = 2_000;
+
+    private final BenchConfig config;
+    private final LatencyHistogram setupLatency;
+    private final LatencyHistogram broadcastLatency;
+    private final LongAdder received;
+    private final List<BenchClient> clients;
+
+    public LoadGenerator(BenchConfig config) {
+        this.config = config;
+        this.setupLatency = new LatencyHistogram();
+        this.broadcastLatency = new LatencyHistogram();
+        this.received = new LongAdder();
+        this.clients = new ArrayList<>(config.getClients());
+    }
+
+    public static void main(String[] args) throws Exception {
+        BenchConfig config = BenchConfig.builder()
+                .host(System.getProperty("chat.bench.host", "127.0.0.1"))
+                .port(Integer.getInteger("chat.bench.port", 9999))
+                .embeddedServerMode(System.getProperty("chat.bench.embeddedServerMode", "none"))
+                .embeddedNodes(Integer.getInteger("chat.bench.embeddedNodes", 1))
+                .clusterPort(Integer.getInteger("chat.bench.clusterPort", 7000))
+                .nodes(System.getProperty("chat.bench.nodes", ""))
+                .clients(Integer.getInteger("chat.bench.clients", 200))
+                .connectThreads(Integer.getInteger("chat.bench.connectThreads", 16))
+                .senders(Integer.getInteger("chat.bench.senders", 20))
+                .messagesPerSecond(Integer.getInteger("chat.bench.messagesPerSecond", 1000))
+                .payloadBytes(Integer.getInteger("chat.bench.payloadBytes", 64))
+                .codec(System.getProperty("chat.bench.codec", "binary"))
+                .virtualThreads(Boolean.getBoolean("chat.bench.virtualThreads"))
+                .warmupSeconds(Integer.getInteger("chat.bench.warmupSeconds", 5))
+                .durationSeconds(Integer.getInteger("chat.bench.durationSeconds", 30))
+                .build();
+        new LoadGenerator(config).run();
+        System.exit(0);
+    }
+
+    public void run() throws InterruptedException, IOException {
+        List<Server> servers = startEmbeddedServers();
+        Executor executor = config.isVirtualThreads()
+                ? ConnectionExecutors.virtualThreads()
+                : ConnectionExecutors.platformThreads();
+        try {
+            connectClients(executor, targets());
+            sendLoad();
+        } finally {
+            clients.forEach(BenchClient::disconnect);
+            servers.forEach(Server::stop);
+        }
+    }
+
+    private List<InetSocketAddress> targets() {
+        List<InetSocketAddress> targets = new ArrayList<>();
+        if (!"none".equals(config.getEmbeddedServerMode())) {
+            for (int i = 0; i < config.getEmbeddedNodes(); i++) {
+                targets.add(new InetSocketAddress(config.getHost(), config.getPort() + i));
+            }
+            return targets;
+        }
+        for (String node : config.getNodes().split(",")) {
+            int colon = node.lastIndexOf(':');
+            if (colon > 0) {
+                targets.add(new InetSocketAddress(node.substring(0, colon).trim(),
+                        Integer.parseInt(node.substring(colon + 1).trim())));
+            }
+        }
+        if (targets.isEmpty()) {
+            targets.add(new InetSocketAddress(config.getHost(), config.getPort()));
+        }
+        return targets;
+    }
+
+    /**
+     * Several embedded nodes are linked into a cluster before any client connects.
+     */
+    private List<Server> startEmbeddedServers() throws InterruptedException {
+        List<Server> servers = new ArrayList<>();
+        if ("none".equals(config.getEmbeddedServerMode())) {
+            return servers;
+        }
+        int nodes = config.getEmbeddedNodes();
+        Map<String, InetSocketAddress> clusterNodes = new LinkedHashMap<>();
+        for (int i = 0; nodes > 1 && i < nodes; i++) {
+            clusterNodes.put("node-" + i, new InetSocketAddress(config.getHost(), config.getClusterPort() + i));
+        }
+        for (int i = 0; i < nodes; i++) {
+            ClusterConfig clusterConfig = nodes == 1 ? null : ClusterConfig.builder()
+                    .nodeId("node-" + i)
+                    .nodes(clusterNodes)
+                    .build();
+            servers.add(startEmbeddedServer(ServerConfig.builder()
+                    .port(config.getPort() + i)
+                    .clusterConfig(clusterConfig)
+                    .build()));
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(CONNECT_TIMEOUT_MILLIS);
+        while (servers.stream().anyMatch(server -> server.getMetrics().getClusterLinks() < nodes - 1)) {
+            if (System.nanoTime() > deadline) {
+                throw new IllegalStateException("Embedded cluster nodes did not link up");
+            }
+            Thread.sleep(50);
+        }
+        return servers;
+    }
+
+    private Server startEmbeddedServer(ServerConfig serverConfig) throws InterruptedException {
+        String mode = config.getEmbeddedServerMode();
+        Server server = new Server(serverConfig);
+        Thread thread = new Thread(() -> {
+            if ("nio".equals(mode)) {
+                server.startNioServer(Runtime.getRuntime().availableProcessors());
+            } else if ("virtual".equals(mode)) {
+                server.startServer(ConnectionExecutors.virtualThreads());
+            } else {
+                server.startServer();
+            }
+        }, "embedded-server");
+        thread.setDaemon(true);
+        thread.start();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(CONNECT_TIMEOUT_MILLIS);
+        while (System.nanoTime() < deadline) {
+            try {
+                new Socket(config.getHost(), serverConfig.getPort()).close();
+                logger.info("Embedded {} server is up on port {}", mode, serverConfig.getPort());
+                return server;
+            } catch (IOException e) {
+                Thread.sleep(50);
+            }
+        }
+        throw new IllegalStateException("Embedded server did not start on port " + serverConfig.getPort());
+    }
+
+    private void connectClients(Executor executor, List<InetSocketAddress> targets) throws InterruptedException {
+        ExecutorService connectPool = Executors.newFixedThreadPool(config.getConnectThreads());
+        LongAdder failed = new LongAdder();
+        long start = System.nanoTime();
+        for (int i = 0; i < config.getClients(); i++) {
+            BenchClient client = new BenchClient("bench-" + i, config.getCodec(), broadcastLatency, received);
+            InetSocketAddress target = targets.get(i % targets.size());
+            clients.add(client);
+            connectPool.execute(() -> {
+                long connectStart = System.nanoTime();
+                try {
+                    if (client.connect(target.getHostString(), target.getPort(), executor, CONNECT_TIMEOUT_MILLIS)) {
+                        setupLatency.record(System.nanoTime() - connectStart);
+                    } else {
+                        failed.increment();
+                    }
+                } catch (IOException e) {
+                    logger.warn("Cannot connect: {}", e.getMessage());
+                    failed.increment();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+        }
+        connectPool.shutdown();
+        connectPool.awaitTermination(1, TimeUnit.HOURS);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        logger.info("Connected {} of {} clients to {} nodes in {} s: {} connections/s, setup p50 {} ms, "
+                        + "p99 {} ms, max {} ms",
+                setupLatency.getCount(), config.getClients(), targets.size(), format(seconds),
+                format(setupLatency.getCount() / seconds), millis(setupLatency.percentile(50)),
+                millis(setupLatency.percentile(99)), millis(setupLatency.getMax()));
+        if (failed.sum() > 0) {
+            logger.warn("{} clients failed to connect", failed.sum());
+        }
+    }
+
+    private void sendLoad() throws InterruptedException {
+        List<BenchClient> senders = clients.subList(0, Math.min(config.getSenders(), clients.size()));
+        if (senders.isEmpty() || config.getMessagesPerSecond() <= 0) {
+            return;
+        }
+        char[] padding = new char[config.getPayloadBytes()];
+        Arrays.fill(padding, 'x');
+        String payload = new String(padding);
+        long intervalNanos = TimeUnit.SECONDS.toNanos(1) / config.getMessagesPerSecond();
+        long start = System.nanoTime();
+        long measureFrom = start + TimeUnit.SECONDS.toNanos(config.getWarmupSeconds());
+        long end = measureFrom + TimeUnit.SECONDS.toNanos(config.getDurationSeconds());
+        clients.forEach(client -> client.measureFrom(measureFrom));
+        logger.info("Sending {} messages/s from {} senders to {} clients, warmup {} s, duration {} s",
+                config.getMessagesPerSecond(), senders.size(), clients.size(), config.getWarmupSeconds(),
+                config.getDurationSeconds());
+
+        long measuredSent = 0;
+        long due = start;
+        int next = 0;
+        while (due < end) {
+            long now = System.nanoTime();
+            while (due <= now && due < end) {
+                senders.get(next).send(due, payload);
+                next = (next + 1) % senders.size();
+                if (due >= measureFrom) {
+                    measuredSent++;
+                }
+                due += intervalNanos;
+            }
+            LockSupport.parkNanos(Math.min(due - System.nanoTime(), TimeUnit.MILLISECONDS.toNanos(1)));
+        }
+        Thread.sleep(DRAIN_MILLIS);
+
+        long connected = clients.stream().filter(client -> !client.isDisconnected()).count();
+        long expected = measuredSent * connected;
+        logger.info("Sent {} messages ({} /s), delivered {} of {} expected ({} /s)",
+                measuredSent, format(measuredSent / (double) config.getDurationSeconds()),
+                received.sum(), expected, format(received.sum() / (double) config.getDurationSeconds()));
+        logger.info("Broadcast latency p50 {} ms, p99 {} ms, p99.9 {} ms, max {} ms, mean {} ms",
+                millis(broadcastLatency.percentile(50)), millis(broadcastLatency.percentile(99)),
+                millis(broadcastLatency.percentile(99.9)), millis(broadcastLatency.getMax()),
+                millis((long) broadcastLatency.getMean()));
+    }
+
+    private static String millis(long nanos) {
+        return format(nanos / 1e6);
+    }
+
+    private static String format(double value) {
+        return String.format("%.3f", value);
+    }
+}
@@ -0,0 +1,214 @@
+package org.example;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Uploads and downloads kept until they complete, so they can be resumed from where they stopped after
+ * a reconnect. Files are streamed from and to disk chunk by chunk. A download is written to "id.part"
+ * in the download directory and renamed after the attachment once complete.
+ */
+class AttachmentTransfers {
+    private static final Logger logger = LoggerFactory.getLogger(AttachmentTransfers.class);
+    private static final String PART_SUFFIX = ".part";
+
+    private final Path downloadDirectory;
+    private final SecureRandom idRandom;
+    private final Map<Long, Upload> uploads;
+    private final Map<Long, Download> downloads;
+
+    AttachmentTransfers(Path downloadDirectory) {
+        this.downloadDirectory = downloadDirectory;
+        this.idRandom = new SecureRandom();
+        this.uploads = new ConcurrentHashMap<>();
+        this.downloads = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * The id is random so other users cannot guess attachments they were not shown.
+     */
+    Upload addUpload(Path path, String room) throws IOException {
+        if (!Files.isRegularFile(path)) {
+            throw new IOException(path + " is not a file");
+        }
+        Upload upload = new Upload(idRandom.nextLong() & Long.MAX_VALUE, path, Files.size(path), room);
+        uploads.put(upload.id, upload);
+        return upload;
+    }
+
+    /**
+     * Streams the upload from the offset the server has; an upload still being sent is restarted from there.
+     *
+     * @return false if there is no such upload
+     */
+    boolean sendUpload(TCPConnection tcpConnection, long id, long offset) throws IOException {
+        Upload upload = uploads.get(id);
+        if (upload == null || offset < 0 || offset > upload.size) {
+            return false;
+        }
+        if (offset == upload.size) {
+            uploads.remove(id);
+            return true;
+        }
+        tcpConnection.sendFile(id, FileChannel.open(upload.path, StandardOpenOption.READ), offset,
+                upload.size - offset);
+        return true;
+    }
+
+    void uploadAnnounced(long id) {
+        uploads.remove(id);
+    }
+
+    List<Upload> pendingUploads() {
+        return new ArrayList<>(uploads.values());
+    }
+
+    /**
+     * @return the offset to ask for, what an earlier attempt already saved
+     */
+    long addDownload(long id) throws IOException {
+        Download download = downloads.computeIfAbsent(id, key -> new Download(key, partPath(key)));
+        return download.offset();
+    }
+
+    List<Long> pendingDownloads() {
+        return new ArrayList<>(downloads.keySet());
+    }
+
+    /**
+     * @return the saved file if the attachment is empty or was already downloaded whole
+     */
+    Optional<Path> startDownload(long id, long size, String fileName) throws IOException {
+        Download download = downloads.get(id);
+        if (download == null) {
+            return Optional.empty();
+        }
+        download.open(size, fileName);
+        return finishIfComplete(download);
+    }
+
+    /**
+     * @return the saved file once the chunk completes its download
+     */
+    Optional<Path> write(Chunk chunk) throws IOException {
+        Download download = downloads.get(chunk.getId());
+        if (download == null || !download.append(chunk.getOffset(), chunk.getData())) {
+            return Optional.empty();
+        }
+        return finishIfComplete(download);
+    }
+
+    private Optional<Path> finishIfComplete(Download download) throws IOException {
+        if (!download.isComplete() || downloads.remove(download.id) == null) {
+            return Optional.empty();
+        }
+        download.close();
+        Path target = downloadDirectory.resolve(safeFileName(download.fileName));
+        if (Files.exists(target)) {
+            target = downloadDirectory.resolve(download.id + "-" + safeFileName(download.fileName));
+        }
+        return Optional.of(Files.move(download.part, target));
+    }
+
+    private Path partPath(long id) {
+        return downloadDirectory.resolve(id + PART_SUFFIX);
+    }
+
+    private static String safeFileName(String fileName) {
+        String safe = fileName.replaceAll("[^\\w.\\- ]", "_");
+        return safe.isBlank() || safe.startsWith(".") ? "_" + safe : safe;
+    }
+
+    static class Upload {
+        private final long id;
+        private final Path path;
+        private final long size;
+        private final String room;
+
+        private Upload(long id, Path path, long size, String room) {
+            this.id = id;
+            this.path = path;
+            this.size = size;
+            this.room = room;
+        }
+
+        long getId() {
+            return id;
+        }
+
+        Path getPath() {
+            return path;
+        }
+
+        long getSize() {
+            return size;
+        }
+
+        String getRoom() {
+            return room;
+        }
+    }
+
+    private class Download {
+        private final long id;
+        private final Path part;
+        private FileChannel out;
+        private long size = -1;
+        private long received;
+        private String fileName;
+
+        private Download(long id, Path part) {
+            this.id = id;
+            this.part = part;
+        }
+
+        synchronized long offset() throws IOException {
+            return out != null ? received : Files.exists(part) ? Files.size(part) : 0;
+        }
+
+        synchronized void open(long size, String fileName) throws IOException {
+            this.size = size;
+            this.fileName = fileName;
+            if (out == null) {
+                Files.createDirectories(downloadDirectory);
+                out = FileChannel.open(part, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                received = out.size();
+            }
+        }
+
+        synchronized boolean append(long offset, ByteBuffer data) throws IOException {
+            if (out == null || offset != received || data.remaining() > size - received) {
+                return false;
+            }
+            while (data.hasRemaining()) {
+                received += out.write(data, received);
+            }
+            return true;
+        }
+
+        synchronized boolean isComplete() {
+            return out != null && received == size;
+        }
+
+        synchronized void close() {
+            try {
+                out.close();
+            } catch (IOException e) {
+                logger.error("Cannot close download {}", part, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package org.example;
+
+import javax.swing.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Takes chat lines from any thread and applies them to the list on the EDT at most once per frame,
+ * so a busy room costs one model update and one repaint per frame instead of one per message.
+ */
+public class ChatLineBuffer {
+    private static final int FRAME_MILLIS = 16;
+
+    private final JList<String> list;
+    private final ChatListModel model;
+    private final Queue<String> pending;
+    private final AtomicBoolean scheduled;
+    private final Timer timer;
+
+    public ChatLineBuffer(JList<String> list, ChatListModel model) {
+        this.list = list;
+        this.model = model;
+        this.pending = new ConcurrentLinkedQueue<>();
+        this.scheduled = new AtomicBoolean();
+        this.timer = new Timer(FRAME_MILLIS, e -> flush());
+        this.timer.setRepeats(false);
+    }
+
+    public void add(String line) {
+        pending.add(line);
+        if (scheduled.compareAndSet(false, true)) {
+            SwingUtilities.invokeLater(timer::restart);
+        }
+    }
+
+    /**
+     * Keeps following the newest line only if it was in view before the batch.
+     */
+    private void flush() {
+        scheduled.set(false);
+        List<String> batch = new ArrayList<>();
+        String line;
+        while ((line = pending.poll()) != null) {
+            batch.add(line);
+        }
+        boolean following = model.getSize() == 0 || list.getLastVisibleIndex() >= model.getSize() - 1;
+        model.addAll(batch);
+        if (following && model.getSize() > 0) {
+            list.ensureIndexIsVisible(model.getSize() - 1);
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package org.example;
+
+import javax.swing.*;
+import java.util.List;
+
+/**
+ * Ring of the latest chat lines. A batch is applied with at most one removal and one insertion event,
+ * and lines past the capacity are evicted oldest first. Must only be used on the EDT.
+ */
+public class ChatListModel extends AbstractListModel<String> {
+    private static final long serialVersionUID = 1L;
+
+    private final String[] lines;
+    private int first;
+    private int size;
+
+    public ChatListModel(int capacity) {
+        this.lines = new String[capacity];
+    }
+
+    public int getCapacity() {
+        return lines.length;
+    }
+
+    @Override
+    public int getSize() {
+        return size;
+    }
+
+    @Override
+    public String getElementAt(int index) {
+        return lines[(first + index) % lines.length];
+    }
+
+    public void addAll(List<String> batch) {
+        int skipped = Math.max(0, batch.size() - lines.length);
+        int added = batch.size() - skipped;
+        if (added == 0) {
+            return;
+        }
+        int evicted = Math.max(0, size + added - lines.length);
+        for (int i = 0; i < evicted; i++) {
+            lines[first] = null;
+            first = (first + 1) % lines.length;
+        }
+        size -= evicted;
+        if (evicted > 0) {
+            fireIntervalRemoved(this, 0, evicted - 1);
+        }
+        for (int i = skipped; i < batch.size(); i++) {
+            lines[(first + size++) % lines.length] = batch.get(i);
+        }
+        fireIntervalAdded(this, size - added, size - 1);
+    }
+}
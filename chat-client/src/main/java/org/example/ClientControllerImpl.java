@@ -7,6 +7,7 @@ import javax.swing.*;
 import java.awt.*;
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
+import java.util.List;
 
 public class ClientControllerImpl implements ClientController, PropertyChangeListener {
     private static final Logger logger = LoggerFactory.getLogger(ClientControllerImpl.class);
@@ -15,10 +16,12 @@ public class ClientControllerImpl implements ClientController, PropertyChangeLis
 
     private final ClientView view;
     private final ClientModel model;
+    private final ChatLineBuffer chatLines;
 
     public ClientControllerImpl(ClientView view, ClientModel model) {
         this.view = view;
         this.model = model;
+        this.chatLines = new ChatLineBuffer(view.getListChat(), view.getChatModel());
         this.model.addListener(this);
 
         setupViewEvents();
@@ -76,18 +79,51 @@ public class ClientControllerImpl implements ClientController, PropertyChangeLis
         });
     }
 
+    /**
+     * Chat lines are only queued here, without the lock; {@link ChatLineBuffer} applies them on the EDT.
+     */
     @Override
-    public synchronized void propertyChange(PropertyChangeEvent evt) {
+    public void propertyChange(PropertyChangeEvent evt) {
+        switch (evt.getPropertyName()) {
+            case "printMessageLine":
+                chatLines.add((String) evt.getNewValue());
+                return;
+            case "rosterSnapshot":
+            case "rosterCleared":
+            case "userOnline":
+            case "userOffline":
+                SwingUtilities.invokeLater(() -> updateRoster(evt));
+                return;
+            default:
+                updateView(evt);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void updateRoster(PropertyChangeEvent evt) {
+        RosterListModel roster = view.getRosterModel();
+        switch (evt.getPropertyName()) {
+            case "rosterSnapshot":
+                roster.addAll((List<String>) evt.getNewValue());
+                break;
+            case "rosterCleared":
+                roster.clear();
+                break;
+            case "userOnline":
+                roster.add((String) evt.getNewValue());
+                break;
+            default:
+                roster.remove((String) evt.getNewValue());
+                break;
+        }
+    }
+
+    private synchronized void updateView(PropertyChangeEvent evt) {
         final String propertyName = evt.getPropertyName();
         final Object newValue = evt.getNewValue();
         logger.info("Fired <{}>", propertyName);
 
         switch (propertyName) {
-            case "printMessageLine":
-                String messageLine = (String) newValue;
-                view.getAreaChat().append(messageLine);
-                logger.info("Message line append to chat area");
-                break;
             case "ipAddress":
                 String ipAddress = (String) newValue;
                 view.getTextIp().setText(ipAddress);
@@ -113,6 +149,13 @@ public class ClientControllerImpl implements ClientController, PropertyChangeLis
                 view.getLabelOnlineState().setText("<CONNECTED>");
                 logger.info("CONNECTED");
                 break;
+            case "onReconnecting":
+                view.getPanelUI().setBorder(BorderFactory.createLineBorder(Color.orange));
+                view.getButtonSend().setEnabled(false);
+                view.getTextInput().setEditable(false);
+                view.getLabelOnlineState().setText("<RECONNECTING>");
+                logger.info("RECONNECTING");
+                break;
             case "onDisconnect":
                 view.getTextIp().setEditable(true);
                 view.getTextPort().setEditable(true);
@@ -121,6 +164,7 @@ public class ClientControllerImpl implements ClientController, PropertyChangeLis
                 view.getButtonSend().setEnabled(false);
                 view.getTextInput().setEditable(false);
                 view.getLabelOnlineState().setText("<DISCONNECTED>");
+                SwingUtilities.invokeLater(view.getRosterModel()::clear);
                 logger.info("DISCONNECTED");
                 break;
             default:
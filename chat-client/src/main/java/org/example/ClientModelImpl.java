@@ -6,19 +6,47 @@ import org.slf4j.LoggerFactory;
 import javax.swing.event.SwingPropertyChangeSupport;
 import java.beans.PropertyChangeListener;
 import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 public class ClientModelImpl implements TCPConnectionListener, ClientModel {
     private static final Logger logger = LoggerFactory.getLogger(ClientModelImpl.class);
+    private static final long RECONNECT_BASE_MILLIS = 250;
+    private static final long RECONNECT_MAX_MILLIS = 30_000;
+    private static final int MAX_RECONNECT_ATTEMPTS = 12;
+    private static final String DEFAULT_ROOM = "";
 
     private final SwingPropertyChangeSupport propertyChangeFirer;
     private String ipAddress;
     private int port;
     private String userName;
-    private TCPConnection tcpConnection;
+    private volatile TCPConnection tcpConnection;
+    private volatile String currentRoom;
+    private volatile boolean stopped = true;
+    private volatile String token;
+    private volatile int reconnectAttempts;
+    private final Map<String, Long> lastSeqs;
+    private final ScheduledExecutorService reconnector;
+    private final AttachmentTransfers transfers;
 
     public ClientModelImpl() {
         logger.info("Client model created");
         this.propertyChangeFirer = new SwingPropertyChangeSupport(this);
+        this.lastSeqs = new ConcurrentHashMap<>();
+        this.reconnector = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "reconnector");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.transfers = new AttachmentTransfers(Paths.get(System.getProperty("chat.client.downloadDir", "downloads")));
     }
 
     @Override
@@ -49,6 +77,7 @@ public class ClientModelImpl implements TCPConnectionListener, ClientModel {
 
     @Override
     public void stopClient() {
+        stopped = true;
         logger.info("Stop client {} isConnected: {}", tcpConnection, tcpConnection.getSocket().isConnected());
         tcpConnection.disconnect();
         logger.info("{} isClosed: {}", tcpConnection, tcpConnection.getSocket().isClosed());
@@ -57,9 +86,12 @@ public class ClientModelImpl implements TCPConnectionListener, ClientModel {
     @Override
     public void startClient() {
         logger.info("Start client <{}>", userName);
+        stopped = false;
+        token = null;
+        reconnectAttempts = 0;
+        lastSeqs.clear();
         try {
-            tcpConnection = new TCPConnection(this, ipAddress, port);
-            tcpConnection.setName(userName);
+            connect();
             logger.info("Client started");
         } catch (IOException e) {
             logger.error("Start client exception {}", tcpConnection);
@@ -67,45 +99,290 @@ public class ClientModelImpl implements TCPConnectionListener, ClientModel {
         }
     }
 
+    private void connect() throws IOException {
+        TCPConnection connection = new BlockingTCPConnection(this, ipAddress, port);
+        connection.setName(userName);
+        tcpConnection = connection;
+    }
+
+    /**
+     * Full jitter: the delay is random up to an exponentially growing ceiling, so clients dropped together
+     * by a server restart come back spread out instead of all at once.
+     */
+    private void scheduleReconnect() {
+        long ceiling = Math.min(RECONNECT_MAX_MILLIS, RECONNECT_BASE_MILLIS << Math.min(reconnectAttempts++, 16));
+        long delay = ThreadLocalRandom.current().nextLong(ceiling + 1);
+        logger.info("Reconnecting {} in {} ms", userName, delay);
+        reconnector.schedule(this::reconnect, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void reconnect() {
+        if (stopped) {
+            return;
+        }
+        try {
+            connect();
+        } catch (IOException e) {
+            logger.info("Reconnect of {} failed: {}", userName, e.getMessage());
+            onConnectionLost();
+        }
+    }
+
+    private void onConnectionLost() {
+        if (reconnectAttempts < MAX_RECONNECT_ATTEMPTS) {
+            propertyChangeFirer.firePropertyChange("onReconnecting", null, "");
+            scheduleReconnect();
+        } else {
+            propertyChangeFirer.firePropertyChange("onDisconnect", null, "");
+        }
+    }
+
+    /**
+     * "/join room" and "/leave room" also switch the room later messages go to, "/rooms" lists rooms,
+     * "/msg user text" sends text to that user only. Messages without a room go to the server's default room.
+     * "/upload path" sends a file to the current room, "/download id" saves an attachment shown in a room.
+     */
     @Override
     public void sendNewMessage(String text) {
+        String[] command = text.trim().split("\\s+", 2);
+        if ("/upload".equals(command[0]) && command.length == 2) {
+            upload(command[1]);
+            return;
+        }
+        if ("/download".equals(command[0]) && command.length == 2) {
+            download(command[1]);
+            return;
+        }
         final Message message = Message.builder()
                 .name(userName)
                 .text(text)
                 .time(tcpConnection.getTime())
+                .room(currentRoom)
                 .build();
+        String[] words = text.trim().split("\\s+", 2);
+        if ("/join".equals(words[0]) && words.length == 2) {
+            message.setCommand(Command.JOIN.getWireName());
+            message.setRoom(words[1]);
+            currentRoom = words[1];
+        } else if ("/leave".equals(words[0]) && (words.length == 2 || currentRoom != null)) {
+            message.setCommand(Command.LEAVE.getWireName());
+            message.setRoom(words.length == 2 ? words[1] : currentRoom);
+            if (message.getRoom().equals(currentRoom)) {
+                currentRoom = null;
+            }
+        } else if ("/rooms".equals(words[0])) {
+            message.setCommand(Command.LIST.getWireName());
+            message.setRoom(null);
+        } else if ("/msg".equals(words[0]) && words.length == 2) {
+            String[] recipientAndText = words[1].split("\\s+", 2);
+            message.setRecipient(recipientAndText[0]);
+            message.setText(recipientAndText.length == 2 ? recipientAndText[1] : "");
+            message.setRoom(null);
+        }
         logger.info("{} send new message {}", userName, message);
         tcpConnection.sendMessage(message);
     }
 
+    private void upload(String path) {
+        try {
+            AttachmentTransfers.Upload upload = transfers.addUpload(Paths.get(path), currentRoom);
+            printLocalLine("Uploading " + upload.getPath().getFileName() + " (" + upload.getSize() + " bytes)");
+            tcpConnection.sendMessage(uploadMessage(upload));
+        } catch (IOException | RuntimeException e) {
+            logger.info("Cannot upload {}", path, e);
+            printLocalLine("Cannot upload " + path + ": " + e.getMessage());
+        }
+    }
+
+    private void download(String id) {
+        try {
+            long attachmentId = Long.parseLong(id);
+            tcpConnection.sendMessage(downloadMessage(attachmentId, transfers.addDownload(attachmentId)));
+        } catch (IOException | RuntimeException e) {
+            logger.info("Cannot download {}", id, e);
+            printLocalLine("Cannot download " + id + ": " + e.getMessage());
+        }
+    }
+
+    private Message uploadMessage(AttachmentTransfers.Upload upload) {
+        return transferMessage(Command.UPLOAD, upload.getId(), upload.getSize() + " " + upload.getPath().getFileName(),
+                upload.getRoom());
+    }
+
+    private Message downloadMessage(long id, long offset) {
+        return transferMessage(Command.DOWNLOAD, id, String.valueOf(offset), null);
+    }
+
+    private Message transferMessage(Command command, long id, String text, String room) {
+        return Message.builder()
+                .name(userName)
+                .text(text)
+                .time(tcpConnection.getTime())
+                .room(room)
+                .command(command.getWireName())
+                .token(Long.toString(id))
+                .build();
+    }
+
+    /**
+     * Uploads and downloads cut off by a reconnect ask the server where to go on from.
+     */
+    private void resumeTransfers() {
+        for (AttachmentTransfers.Upload upload : transfers.pendingUploads()) {
+            tcpConnection.sendMessage(uploadMessage(upload));
+        }
+        for (long id : transfers.pendingDownloads()) {
+            download(String.valueOf(id));
+        }
+    }
+
     @Override
     public void onConnectionReady(TCPConnection tcpConnection) {
-        propertyChangeFirer.firePropertyChange("onConnectionReady", "", "");
+        // the receiver thread can get here before connect() returns
+        this.tcpConnection = tcpConnection;
+        propertyChangeFirer.firePropertyChange("onConnectionReady", null, "");
         logger.info("onConnection client <{}>", userName);
         final Message message = Message.builder()
                 .name(userName)
                 .text("connected")
                 .time(tcpConnection.getTime())
+                .codec(MessageCodecs.BINARY.getName())
+                .features(Feature.all())
                 .build();
+        String token = this.token;
+        if (token != null) {
+            message.setToken(token);
+            message.setCommand(Command.RESUME.getWireName());
+            message.setText(lastSeqs.entrySet().stream()
+                    .map(entry -> entry.getValue() + " " + entry.getKey())
+                    .collect(Collectors.joining("\n")));
+        }
         tcpConnection.sendMessage(message);
     }
 
     @Override
     public void onReceiveMessage(TCPConnection tcpConnection, Message message) {
-        logger.info("onReceiveMessage");
-        //TODO: make check to update users list
+        logger.debug("onReceiveMessage");
+        if (message.getCodec() != null) {
+            MessageCodecs.forName(message.getCodec()).ifPresent(tcpConnection::setCodec);
+            return;
+        }
+        if (message.getCommand() != null) {
+            onServerCommand(message);
+            return;
+        }
+        if (message.getSeq() != null && !markSeen(message)) {
+            return;
+        }
+        if (message.getToken() != null && userName.equals(message.getName())) {
+            transfers.uploadAnnounced(Long.parseLong(message.getToken()));
+        }
         printMessage(message);
     }
 
+    @Override
+    public void onChunk(TCPConnection tcpConnection, Chunk chunk) {
+        try {
+            transfers.write(chunk).ifPresent(this::onDownloaded);
+        } catch (IOException e) {
+            logger.error("Cannot save chunk of attachment {}", chunk.getId(), e);
+            printLocalLine("Cannot save attachment " + chunk.getId() + ": " + e.getMessage());
+        }
+    }
+
+    private void onDownloaded(Path path) {
+        printLocalLine("Saved " + path);
+    }
+
+    /**
+     * The server answers an upload with the offset to send from, and a download with "size file name".
+     */
+    private void onTransferCommand(Command command, Message message) {
+        long id = Long.parseLong(message.getToken());
+        try {
+            if (command == Command.UPLOAD) {
+                transfers.sendUpload(tcpConnection, id, Long.parseLong(message.getText()));
+            } else {
+                String[] sizeAndName = message.getText().split(" ", 2);
+                transfers.startDownload(id, Long.parseLong(sizeAndName[0]), sizeAndName[1])
+                        .ifPresent(this::onDownloaded);
+            }
+        } catch (IOException | RuntimeException e) {
+            logger.error("Transfer of attachment {} failed", id, e);
+            printLocalLine("Transfer of attachment " + id + " failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return false if a message of the room with this or a later sequence number was already shown
+     */
+    private boolean markSeen(Message message) {
+        String room = message.getRoom() == null ? DEFAULT_ROOM : message.getRoom();
+        Long last = lastSeqs.get(room);
+        if (last != null && message.getSeq() <= last) {
+            return false;
+        }
+        lastSeqs.put(room, message.getSeq());
+        return true;
+    }
+
+    /**
+     * A resumed session keeps the sequence numbers seen so far; a new one starts over. Either way
+     * a fresh roster snapshot follows.
+     */
+    private void onSession(Message message) {
+        token = message.getToken();
+        reconnectAttempts = 0;
+        if ("resumed".equals(message.getText())) {
+            printMessage(Message.builder()
+                    .name(userName)
+                    .text("Session resumed")
+                    .time(message.getTime())
+                    .build());
+        } else {
+            lastSeqs.clear();
+        }
+        propertyChangeFirer.firePropertyChange("rosterCleared", null, "");
+        resumeTransfers();
+    }
+
+    /**
+     * Presence and session commands. The roster listener gets a snapshot as a list of names, then one name per change.
+     */
+    private void onServerCommand(Message message) {
+        Command command = Command.forName(message.getCommand()).orElse(null);
+        if (command == Command.ROSTER) {
+            propertyChangeFirer.firePropertyChange("rosterSnapshot", null,
+                    Arrays.asList(message.getText().split("\n")));
+        } else if (command == Command.ONLINE) {
+            propertyChangeFirer.firePropertyChange("userOnline", null, message.getText());
+        } else if (command == Command.OFFLINE) {
+            propertyChangeFirer.firePropertyChange("userOffline", null, message.getText());
+        } else if (command == Command.SESSION) {
+            onSession(message);
+        } else if ((command == Command.UPLOAD || command == Command.DOWNLOAD) && message.getToken() != null) {
+            onTransferCommand(command, message);
+        } else {
+            logger.info("Unexpected command {}", message.getCommand());
+        }
+    }
+
     @Override
     public void onDisconnect(TCPConnection tcpConnection) {
         logger.info("onDisconnect client {}", userName);
-        propertyChangeFirer.firePropertyChange("onDisconnect", "", "");
+        if (tcpConnection != this.tcpConnection) {
+            return;
+        }
         printMessage(Message.builder()
                 .name(userName)
                 .text("Connection closed")
                 .time(tcpConnection.getTime())
                 .build());
+        if (!stopped && token != null) {
+            onConnectionLost();
+        } else {
+            propertyChangeFirer.firePropertyChange("onDisconnect", null, "");
+        }
     }
 
     @Override
@@ -118,8 +395,16 @@ public class ClientModelImpl implements TCPConnectionListener, ClientModel {
                 .build());
     }
 
+    private void printLocalLine(String text) {
+        printMessage(Message.builder()
+                .name(userName)
+                .text(text)
+                .time(tcpConnection.getTime())
+                .build());
+    }
+
     private void printMessage(Message message) {
-        logger.info("Print message {}", message);
+        logger.debug("Print message {}", message);
         printMessageLine(message);
     }
 
@@ -130,14 +415,21 @@ public class ClientModelImpl implements TCPConnectionListener, ClientModel {
     private String convertMessageToLine(Message message) {
         final StringBuilder builder = new StringBuilder();
         String time = message.getTime().substring(0, 8);
-        return builder
+        builder
                 .append('[')
                 .append(time)
-                .append("] ")
-                .append(message.getName())
-                .append(": ")
-                .append(message.getText())
-                .append(System.lineSeparator())
-                .toString();
+                .append("] ");
+        if (message.getRoom() != null) {
+            builder.append('#').append(message.getRoom()).append(' ');
+        }
+        builder.append(message.getName());
+        if (message.getRecipient() != null) {
+            builder.append(" -> ").append(message.getRecipient());
+        }
+        builder.append(": ").append(message.getText());
+        if (message.getToken() != null) {
+            builder.append(" [/download ").append(message.getToken()).append(']');
+        }
+        return builder.toString();
     }
 }
@@ -17,9 +17,13 @@ public interface ClientView {
 
     JButton getButtonConnect();
 
-    JTextArea getAreaChat();
+    JList<String> getListChat();
+
+    ChatListModel getChatModel();
 
     JLabel getLabelOnlineState();
 
-    JTextArea getAreaUsers();
+    JList<String> getListUsers();
+
+    RosterListModel getRosterModel();
 }
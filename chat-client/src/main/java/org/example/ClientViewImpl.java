@@ -15,6 +15,7 @@ public class ClientViewImpl implements ClientView {
     private static final int USER_NAME_LENGTH_LIMIT = 20;
     private static final String DEFAULT_PORT = "9999";
     private static final String DEFAULT_IP = "192.168.88.194";
+    private static final int CHAT_LINES_LIMIT = 5000;
 
     private JButton buttonSend;
     private JButton buttonConnect;
@@ -22,8 +23,10 @@ public class ClientViewImpl implements ClientView {
     private JTextField textIp;
     private JTextField textPort;
     private JTextField textUserName;
-    private JTextArea areaChat;
-    private JTextArea areaUsers;
+    private JList<String> listChat;
+    private ChatListModel chatModel;
+    private JList<String> listUsers;
+    private RosterListModel rosterModel;
     private JPanel panelUI;
     private JLabel labelChatClient;
     private JLabel labelOnlineState;
@@ -63,8 +66,8 @@ public class ClientViewImpl implements ClientView {
         panelUI.add(labelUser, "right");
         panelUI.add(textUserName, "span 2, growx");
         panelUI.add(buttonConnect, "wrap");
-        panelUI.add(areaChat, "span 6, growx, growy");
-        panelUI.add(areaUsers, "span, growx, growy");
+        panelUI.add(new JScrollPane(listChat), "span 6, growx, growy");
+        panelUI.add(new JScrollPane(listUsers), "span, growx, growy");
         panelUI.add(textInput, "span 7, growx");
         panelUI.add(buttonSend, "growx");
     }
@@ -101,15 +104,18 @@ public class ClientViewImpl implements ClientView {
     }
 
     private void initTextAreas() {
-        areaChat = new JTextArea();
-        areaChat.setLineWrap(true);
-        areaChat.setEditable(false);
-        areaChat.setBorder(BorderFactory.createLineBorder(Color.BLUE));
+        chatModel = new ChatListModel(CHAT_LINES_LIMIT);
+        listChat = new JList<>(chatModel);
+        // a fixed height spares measuring every line for it; the width still follows the longest line
+        listChat.setFixedCellHeight(listChat.getCellRenderer()
+                .getListCellRendererComponent(listChat, "[00:00:00] #room user: message", 0, false, false)
+                .getPreferredSize().height);
+        listChat.setBorder(BorderFactory.createLineBorder(Color.BLUE));
 
-        areaUsers = new JTextArea();
-        areaUsers.setLineWrap(true);
-        areaUsers.setEditable(false);
-        areaUsers.setBorder(BorderFactory.createLineBorder(Color.BLUE));
+        rosterModel = new RosterListModel();
+        listUsers = new JList<>(rosterModel);
+        listUsers.setPrototypeCellValue("01234567890123456789");
+        listUsers.setBorder(BorderFactory.createLineBorder(Color.BLUE));
     }
 
     @Override
@@ -142,9 +148,18 @@ public class ClientViewImpl implements ClientView {
         return buttonConnect;
     }
 
+    /**
+     * The prototype cell value gives every row the same height, so the list only lays out and
+     * paints the rows in view.
+     */
     @Override
-    public JTextArea getAreaChat() {
-        return areaChat;
+    public JList<String> getListChat() {
+        return listChat;
+    }
+
+    @Override
+    public ChatListModel getChatModel() {
+        return chatModel;
     }
 
     @Override
@@ -153,8 +168,13 @@ public class ClientViewImpl implements ClientView {
     }
 
     @Override
-    public JTextArea getAreaUsers() {
-        return areaUsers;
+    public JList<String> getListUsers() {
+        return listUsers;
+    }
+
+    @Override
+    public RosterListModel getRosterModel() {
+        return rosterModel;
     }
 
     public static class JTextFieldLimit extends PlainDocument {
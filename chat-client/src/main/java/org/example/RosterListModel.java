@@ -0,0 +1,79 @@
+package org.example;
+
+import javax.swing.*;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Online user names kept sorted, so a single change is a binary search and one list event.
+ * Adding a present name or removing an absent one does nothing. Must only be used on the EDT.
+ */
+public class RosterListModel extends AbstractListModel<String> {
+    private static final long serialVersionUID = 1L;
+    private static final Comparator<String> ORDER = String.CASE_INSENSITIVE_ORDER.thenComparing(Comparator.naturalOrder());
+
+    private final List<String> names = new ArrayList<>();
+
+    @Override
+    public int getSize() {
+        return names.size();
+    }
+
+    @Override
+    public String getElementAt(int index) {
+        return names.get(index);
+    }
+
+    public void add(String name) {
+        int index = Collections.binarySearch(names, name, ORDER);
+        if (index >= 0) {
+            return;
+        }
+        index = -index - 1;
+        names.add(index, name);
+        fireIntervalAdded(this, index, index);
+    }
+
+    public void remove(String name) {
+        int index = Collections.binarySearch(names, name, ORDER);
+        if (index < 0) {
+            return;
+        }
+        names.remove(index);
+        fireIntervalRemoved(this, index, index);
+    }
+
+    /**
+     * Merges a roster snapshot with one sort instead of an insertion per name.
+     */
+    public void addAll(Collection<String> snapshot) {
+        int oldSize = names.size();
+        names.addAll(snapshot);
+        names.sort(ORDER);
+        int size = 0;
+        for (int i = 0; i < names.size(); i++) {
+            if (size == 0 || ORDER.compare(names.get(size - 1), names.get(i)) != 0) {
+                names.set(size++, names.get(i));
+            }
+        }
+        names.subList(size, names.size()).clear();
+        if (oldSize > 0) {
+            fireContentsChanged(this, 0, Math.min(oldSize, size) - 1);
+        }
+        if (size > oldSize) {
+            fireIntervalAdded(this, oldSize, size - 1);
+        }
+    }
+
+    public void clear() {
+        int size = names.size();
+        if (size == 0) {
+            return;
+        }
+        names.clear();
+        fireIntervalRemoved(this, 0, size - 1);
+    }
+}
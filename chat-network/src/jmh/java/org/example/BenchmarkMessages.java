@@ -0,0 +1,58 @@
+package org.example;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+
+final class BenchmarkMessages {
+    private static final String TIME = "12:34:56.789012345";
+
+    private BenchmarkMessages() {
+    }
+
+    /**
+     * @param payload "typical" for a one-line chat message, "large" for a 16 KB text with markup,
+     *                quotes and non-ASCII characters that need escaping
+     */
+    static Message create(String payload) {
+        switch (payload) {
+            case "typical":
+                return Message.builder()
+                        .name("alice")
+                        .text("Are we still on for the release review at three?")
+                        .time(TIME)
+                        .build();
+            case "large":
+                StringBuilder text = new StringBuilder(16 * 1024);
+                while (text.length() < 16 * 1024) {
+                    text.append("<b>\"Gr\u00fc\u00dfe\"</b> & \u00fcn\u00efc\u00f6d\u00e9 \u2014 line ").append(text.length()).append('\n');
+                }
+                return Message.builder()
+                        .name("alice")
+                        .text(text.toString())
+                        .time(TIME)
+                        .room("release-review")
+                        .build();
+            default:
+                throw new IllegalArgumentException("Unknown payload " + payload);
+        }
+    }
+
+    static byte[] toBytes(Frame frame) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(frame.length());
+        try {
+            frame.writeTo(out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Decoders get heap buffers backed by the connection's read array, not read-only frame views.
+     */
+    static ByteBuffer toHeapBuffer(Frame frame) {
+        return ByteBuffer.wrap(toBytes(frame));
+    }
+}
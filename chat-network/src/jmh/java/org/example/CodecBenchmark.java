@@ -0,0 +1,47 @@
+package org.example;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encode and decode cost of one message per codec; run with -prof gc for bytes allocated per operation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class CodecBenchmark {
+    @Param({"json", "binary"})
+    private String codec;
+    @Param({"typical", "large"})
+    private String payload;
+
+    private MessageCodec messageCodec;
+    private Message message;
+    private ByteBuffer frame;
+
+    @Setup
+    public void setUp() {
+        messageCodec = MessageCodecs.forName(codec).orElseThrow(IllegalArgumentException::new);
+        message = BenchmarkMessages.create(payload);
+        frame = BenchmarkMessages.toHeapBuffer(messageCodec.encode(message));
+    }
+
+    @Benchmark
+    public Frame encode() {
+        return messageCodec.encode(message);
+    }
+
+    @Benchmark
+    public Message decode() {
+        return messageCodec.decode(frame.duplicate());
+    }
+}
@@ -0,0 +1,87 @@
+package org.example;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The connection's stream path over in-memory streams: a burst of frames split into messages by a
+ * FrameDecoder, and written as one batch through a buffered stream like TCPConnection's sender.
+ * Scores are per message.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class FramingBenchmark {
+    private static final int FRAMES = 64;
+
+    @Param({"json", "binary"})
+    private String codec;
+    @Param({"typical", "large"})
+    private String payload;
+
+    private MessageCodec messageCodec;
+    private Message message;
+    private Frame[] frames;
+    private byte[] stream;
+    private FrameDecoder decoder;
+    private OutputStream out;
+
+    @Setup
+    public void setUp() {
+        messageCodec = MessageCodecs.forName(codec).orElseThrow(IllegalArgumentException::new);
+        message = BenchmarkMessages.create(payload);
+        frames = new Frame[FRAMES];
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (int i = 0; i < FRAMES; i++) {
+            frames[i] = messageCodec.encode(message);
+            bytes.writeBytes(BenchmarkMessages.toBytes(frames[i]));
+        }
+        stream = bytes.toByteArray();
+        decoder = new FrameDecoder();
+        out = new BufferedOutputStream(OutputStream.nullOutputStream(), ConnectionConfig.defaults().getMaxBatchBytes());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public void readFrames(Blackhole blackhole) throws IOException {
+        ByteArrayInputStream in = new ByteArrayInputStream(stream);
+        while (decoder.read(in) >= 0) {
+            while (decoder.hasFrame()) {
+                blackhole.consume(decoder.next());
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public void writeFrames() throws IOException {
+        for (Frame frame : frames) {
+            frame.writeTo(out);
+        }
+        out.flush();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public void encodeAndWrite() throws IOException {
+        for (int i = 0; i < FRAMES; i++) {
+            messageCodec.encode(message).writeTo(out);
+        }
+        out.flush();
+    }
+}
@@ -0,0 +1,47 @@
+package org.example;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the Lombok-generated builder, equals and hashCode of Message.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class MessageBenchmark {
+    private Message message;
+    private Message copy;
+
+    @Setup
+    public void setUp() {
+        message = BenchmarkMessages.create("typical");
+        copy = build();
+    }
+
+    @Benchmark
+    public Message build() {
+        return Message.builder()
+                .name(message.getName())
+                .text(message.getText())
+                .time(message.getTime())
+                .build();
+    }
+
+    @Benchmark
+    public boolean equalsCopy() {
+        return message.equals(copy);
+    }
+
+    @Benchmark
+    public int hashCodeOf() {
+        return message.hashCode();
+    }
+}
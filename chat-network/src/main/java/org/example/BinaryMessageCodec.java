@@ -0,0 +1,235 @@
+package org.example;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Frame layout: marker byte, varint payload length, then every message field as a varint of
+ * (UTF-8 length + 1) followed by the UTF-8 bytes, 0 standing for null. Decoders ignore trailing
+ * fields they do not know, so new fields may be appended to the end.
+ */
+public class BinaryMessageCodec implements MessageCodec {
+    private static final Logger logger = LoggerFactory.getLogger(BinaryMessageCodec.class);
+    private static final String NAME = "binary";
+    private static final int MAX_VARINT_LENGTH = 5;
+    private static final int FIELD_COUNT = 10;
+    static final int MARKER = 0;
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public Frame encode(Message message) {
+        MessageEncodedEvent event = new MessageEncodedEvent();
+        event.begin();
+        String[] fields = fields(message);
+        int capacity = 1 + MAX_VARINT_LENGTH;
+        for (String field : fields) {
+            capacity += MAX_VARINT_LENGTH + (field == null ? 0 : field.length() * 3);
+        }
+        byte[] bytes = new byte[capacity];
+        int payloadStart = 1 + MAX_VARINT_LENGTH;
+        int position = payloadStart;
+        for (String field : fields) {
+            position = writeField(bytes, position, field);
+        }
+        int payloadLength = position - payloadStart;
+        int start = payloadStart - 1 - varintLength(payloadLength);
+        bytes[start] = MARKER;
+        writeVarint(bytes, start + 1, payloadLength);
+        Frame frame = new Frame(bytes, start, position - start);
+        event.finish(NAME, frame);
+        return frame;
+    }
+
+    @Override
+    public int frameLength(ByteBuffer buffer) throws IOException {
+        int position = buffer.position() + 1;
+        int payloadLength = 0;
+        for (int shift = 0; ; shift += 7) {
+            if (position >= buffer.limit()) {
+                return -1;
+            }
+            if (shift >= 7 * MAX_VARINT_LENGTH) {
+                throw new IOException("Malformed frame length");
+            }
+            byte b = buffer.get(position++);
+            payloadLength |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                break;
+            }
+        }
+        checkFrameLength(payloadLength);
+        int frameLength = position - buffer.position() + payloadLength;
+        return buffer.remaining() < frameLength ? -1 : frameLength;
+    }
+
+    @Override
+    public Message decode(ByteBuffer frame) {
+        byte[] bytes;
+        int offset;
+        if (frame.hasArray()) {
+            bytes = frame.array();
+            offset = frame.arrayOffset() + frame.position();
+        } else {
+            bytes = new byte[frame.remaining()];
+            frame.duplicate().get(bytes);
+            offset = 0;
+        }
+        int end = offset + frame.remaining();
+        int position = offset + 1;
+        while (position < end && bytes[position] < 0) {
+            position++;
+        }
+        return decodePayload(bytes, position + 1, end - position - 1);
+    }
+
+    private Message decodePayload(byte[] bytes, int offset, int length) {
+        String[] fields = new String[FIELD_COUNT];
+        int end = offset + length;
+        int[] position = {offset};
+        try {
+            for (int i = 0; position[0] < end; i++) {
+                String field = readField(bytes, position, end);
+                if (i < FIELD_COUNT) {
+                    fields[i] = field;
+                }
+            }
+        } catch (IndexOutOfBoundsException e) {
+            logger.error("Reading message error: malformed binary frame of {} bytes", length);
+            return null;
+        }
+        return Message.builder()
+                .name(fields[0])
+                .text(fields[1])
+                .time(fields[2])
+                .codec(fields[3])
+                .room(fields[4])
+                .command(fields[5])
+                .recipient(fields[6])
+                .seq(parseSeq(fields[7]))
+                .token(fields[8])
+                .features(fields[9])
+                .build();
+    }
+
+    private static String[] fields(Message message) {
+        return new String[]{message.getName(), message.getText(), message.getTime(), message.getCodec(),
+                message.getRoom(), message.getCommand(), message.getRecipient(),
+                message.getSeq() == null ? null : message.getSeq().toString(), message.getToken(),
+                message.getFeatures()};
+    }
+
+    private static Long parseSeq(String field) {
+        if (field == null) {
+            return null;
+        }
+        try {
+            return Long.valueOf(field);
+        } catch (NumberFormatException e) {
+            logger.error("Reading message error: malformed sequence number {}", field);
+            return null;
+        }
+    }
+
+    private static void checkFrameLength(int length) throws IOException {
+        if (length < 0 || length > MAX_FRAME_LENGTH) {
+            throw new IOException("Frame length " + length + " exceeds " + MAX_FRAME_LENGTH + " bytes");
+        }
+    }
+
+    private static int writeField(byte[] bytes, int position, String field) {
+        if (field == null) {
+            return writeVarint(bytes, position, 0);
+        }
+        position = writeVarint(bytes, position, utf8Length(field) + 1);
+        for (int i = 0; i < field.length(); i++) {
+            char c = field.charAt(i);
+            if (c < 0x80) {
+                bytes[position++] = (byte) c;
+            } else if (c < 0x800) {
+                bytes[position++] = (byte) (0xC0 | c >> 6);
+                bytes[position++] = (byte) (0x80 | c & 0x3F);
+            } else if (Character.isHighSurrogate(c) && i + 1 < field.length()
+                    && Character.isLowSurrogate(field.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, field.charAt(++i));
+                bytes[position++] = (byte) (0xF0 | codePoint >> 18);
+                bytes[position++] = (byte) (0x80 | codePoint >> 12 & 0x3F);
+                bytes[position++] = (byte) (0x80 | codePoint >> 6 & 0x3F);
+                bytes[position++] = (byte) (0x80 | codePoint & 0x3F);
+            } else if (Character.isSurrogate(c)) {
+                bytes[position++] = '?';
+            } else {
+                bytes[position++] = (byte) (0xE0 | c >> 12);
+                bytes[position++] = (byte) (0x80 | c >> 6 & 0x3F);
+                bytes[position++] = (byte) (0x80 | c & 0x3F);
+            }
+        }
+        return position;
+    }
+
+    private static int utf8Length(String field) {
+        int length = 0;
+        for (int i = 0; i < field.length(); i++) {
+            char c = field.charAt(i);
+            if (c < 0x80) {
+                length += 1;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < field.length()
+                    && Character.isLowSurrogate(field.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                length += 1;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    private static String readField(byte[] bytes, int[] position, int end) {
+        int length = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = bytes[position[0]++];
+            length |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                break;
+            }
+        }
+        if (length == 0) {
+            return null;
+        }
+        int start = position[0];
+        position[0] += length - 1;
+        if (position[0] > end) {
+            throw new IndexOutOfBoundsException("Field exceeds frame");
+        }
+        return new String(bytes, start, length - 1, StandardCharsets.UTF_8);
+    }
+
+    private static int writeVarint(byte[] bytes, int position, int value) {
+        while ((value & ~0x7F) != 0) {
+            bytes[position++] = (byte) (value & 0x7F | 0x80);
+            value >>>= 7;
+        }
+        bytes[position++] = (byte) value;
+        return position;
+    }
+
+    private static int varintLength(int value) {
+        int length = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            length++;
+        }
+        return length;
+    }
+}
@@ -0,0 +1,299 @@
+package org.example;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.net.Socket;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Connection over a blocking socket: a receiver reads and dispatches frames, a sender writes the
+ * outbound queue in batches, both on threads of the given executor. Sockets are plain ones: on JDKs
+ * before 13 the streams of a channel-backed socket share one lock, so a blocked read would stall writes.
+ */
+public class BlockingTCPConnection extends TCPConnection {
+    private final static Logger logger = LoggerFactory.getLogger(BlockingTCPConnection.class);
+    private static final Frame WAKE_UP = new Frame(new byte[0]);
+
+    private final OutputStream out;
+    private final InputStream in;
+    private final FrameDecoder decoder;
+    private final Lock readLock = new ReentrantLock();
+    private final OutboundQueue<Frame> outboundQueue;
+    private final Queue<FileTransfer> files;
+    private final WritableByteChannel fileOut;
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private long readPauseNanos;
+    private volatile Thread receiver;
+    private volatile Thread sender;
+
+    public BlockingTCPConnection(TCPConnectionListener listener, String ipAddress, int port) throws IOException {
+        this(listener, new Socket(ipAddress, port));
+        logger.info("Constructor TCPConnection-Client");
+    }
+
+    public BlockingTCPConnection(TCPConnectionListener listener, Socket socket) throws IOException {
+        this(listener, socket, ConnectionExecutors.platformThreads());
+    }
+
+    public BlockingTCPConnection(TCPConnectionListener listener, Socket socket, Executor executor) throws IOException {
+        this(listener, socket, executor, ConnectionConfig.defaults());
+    }
+
+    public BlockingTCPConnection(TCPConnectionListener listener, Socket socket, Executor executor,
+                                 ConnectionConfig config) throws IOException {
+        super(listener, socket, config);
+        logger.info("Constructor TCPConnection");
+        this.in = socket.getInputStream();
+        this.decoder = new FrameDecoder();
+        this.out = new BufferedOutputStream(socket.getOutputStream(), config.getMaxBatchBytes());
+        this.outboundQueue = new OutboundQueue<>(config);
+        this.files = new ConcurrentLinkedQueue<>();
+        this.fileOut = Channels.newChannel(out);
+
+        executor.execute(this::send);
+        executor.execute(this::receive);
+    }
+
+    private void receive() {
+        receiver = Thread.currentThread();
+        try {
+            listener.onConnectionReady(BlockingTCPConnection.this);
+            while (!receiver.isInterrupted()) {
+                readMessage().filter(message -> !onHeartbeat(message))
+                        .ifPresent(message -> listener.onReceiveMessage(BlockingTCPConnection.this, message));
+            }
+        } catch (EOFException e) {
+            logger.info("Connection {} closed by peer", this);
+        } catch (IOException e) {
+            listener.onException(BlockingTCPConnection.this, e);
+        } finally {
+            close();
+            listener.onDisconnect(BlockingTCPConnection.this);
+        }
+    }
+
+    /**
+     * File chunks are only written while no messages are queued, one at a time, so a message waits
+     * for one chunk at most.
+     */
+    private void send() {
+        sender = Thread.currentThread();
+        try {
+            int lastBatchFrames = 0;
+            while (!closed.get() && !sender.isInterrupted()) {
+                FileTransfer file = files.peek();
+                Frame frame = file == null ? outboundQueue.take() : outboundQueue.poll();
+                if (frame == null) {
+                    writeChunk(file);
+                } else if (frame != WAKE_UP) {
+                    lastBatchFrames = writeBatch(frame, lastBatchFrames > 1);
+                }
+            }
+        } catch (InterruptedException e) {
+            logger.info("Sender of {} stopped", this);
+        } catch (IOException e) {
+            listener.onException(BlockingTCPConnection.this, e);
+            disconnect();
+        } finally {
+            outboundQueue.clear();
+            closeFiles();
+        }
+    }
+
+    /**
+     * A plain socket cannot take a zero-copy transfer: the file is copied through a small buffer of
+     * the channel wrapping the output stream.
+     */
+    private void writeChunk(FileTransfer file) throws IOException {
+        if (!file.isDone()) {
+            int bytes = file.writeChunk(fileOut);
+            out.flush();
+            getMetrics().recordOut(1, bytes);
+        }
+        files.poll();
+        if (file.isDone()) {
+            file.close();
+        } else {
+            files.add(file);
+        }
+    }
+
+    public Optional<Message> readMessage() throws IOException {
+        readLock.lock();
+        try {
+            Message message = getMessage();
+            return Optional.ofNullable(message);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * Like the NIO transport, a frame over the DELAY limits is delivered and reading pauses after it:
+     * the pause is taken before the next frame is read.
+     */
+    private Message getMessage() throws IOException {
+        if (readPauseNanos > 0) {
+            long pause = readPauseNanos;
+            readPauseNanos = 0;
+            try {
+                TimeUnit.NANOSECONDS.sleep(pause);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while throttled");
+            }
+        }
+        while (!decoder.hasFrame()) {
+            int read = decoder.read(in);
+            if (read < 0) {
+                throw new EOFException("End of stream");
+            }
+            bytesRead(read);
+        }
+        getMetrics().recordMessageIn();
+        long pause = throttle(decoder.frameLength(), decoder.isChunk());
+        if (pause < 0) {
+            decoder.skip();
+            if (pause == THROTTLE_DISCONNECT) {
+                disconnect();
+            }
+            return null;
+        }
+        readPauseNanos = pause;
+        if (decoder.isChunk()) {
+            Chunk chunk = decoder.nextChunk();
+            if (chunk != null) {
+                listener.onChunk(this, chunk);
+            }
+            return null;
+        }
+        MessageReceivedEvent event = new MessageReceivedEvent();
+        event.begin();
+        Message message = decoder.next();
+        messageReceived(event);
+        return message;
+    }
+
+    @Override
+    public void sendFrame(Frame frame) {
+        if (!outboundQueue.offer(frame)) {
+            logger.warn("Connection {} is too slow, outbound backlog {}. Disconnecting", this, outboundQueue.size());
+            disconnect();
+        }
+    }
+
+    @Override
+    public void sendFile(long id, FileChannel file, long offset, long length) {
+        FileTransfer transfer = new FileTransfer(id, file, offset, length);
+        for (FileTransfer sending : files) {
+            if (sending.getId() == id) {
+                sending.cancel();
+            }
+        }
+        files.add(transfer);
+        if (closed.get()) {
+            closeFiles();
+            return;
+        }
+        outboundQueue.wakeUp(WAKE_UP);
+    }
+
+    private void closeFiles() {
+        FileTransfer file;
+        while ((file = files.poll()) != null) {
+            file.close();
+        }
+    }
+
+    /**
+     * Writes the frame together with whatever is queued behind it, up to maxBatchBytes, with one flush.
+     * While the previous batch had more than one frame (a burst) it also waits up to maxFlushDelay for more.
+     */
+    private int writeBatch(Frame first, boolean burst) throws IOException, InterruptedException {
+        long maxFlushDelayNanos = getMaxFlushDelayNanos();
+        long deadline = System.nanoTime() + maxFlushDelayNanos;
+        int frames = 0;
+        long bytes = 0;
+        Frame frame = first;
+        while (frame != null) {
+            if (frame != WAKE_UP) {
+                frame.writeTo(out);
+                frames++;
+                bytes += frame.length();
+            }
+            if (bytes >= getMaxBatchBytes()) {
+                break;
+            }
+            frame = outboundQueue.poll();
+            if (frame == null && burst && maxFlushDelayNanos > 0) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining > 0) {
+                    frame = outboundQueue.poll(remaining, TimeUnit.NANOSECONDS);
+                }
+            }
+        }
+        out.flush();
+        getFlushStats().record(frames, bytes);
+        getMetrics().recordOut(frames, bytes);
+        return frames;
+    }
+
+    @Override
+    public int getOutboundBacklog() {
+        return outboundQueue.size();
+    }
+
+    @Override
+    public long getQueuedMessages() {
+        return outboundQueue.getQueued();
+    }
+
+    @Override
+    public long getDroppedMessages() {
+        return outboundQueue.getDropped();
+    }
+
+    @Override
+    protected boolean isBacklogExpired() {
+        return outboundQueue.isBacklogExpired();
+    }
+
+    @Override
+    public void disconnect() {
+        logger.info("Method disconnect {}", this);
+        Thread receiver = this.receiver;
+        if (receiver != null) {
+            receiver.interrupt();
+            logger.info("Receiver {} is interrupted: {}", receiver.getName(), receiver.isInterrupted());
+        }
+        close();
+    }
+
+    private void close() {
+        if (closed.compareAndSet(false, true)) {
+            connectionClosed();
+        }
+        Thread sender = this.sender;
+        if (sender != null) {
+            sender.interrupt();
+        }
+        try {
+            getSocket().close();
+        } catch (IOException e) {
+            logger.error("Error in server disconnect method.", e);
+            listener.onException(BlockingTCPConnection.this, e);
+        }
+    }
+}
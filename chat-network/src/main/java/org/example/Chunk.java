@@ -0,0 +1,106 @@
+package org.example;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A piece of a file streamed with {@link TCPConnection#sendFile}, between the messages of the connection.
+ * Frame layout: marker byte, varint payload length as in {@link BinaryMessageCodec}, then the payload:
+ * varint transfer id, varint offset of the data in the file, and the data itself.
+ */
+public final class Chunk {
+    public static final int MAX_DATA_LENGTH = 64 * 1024;
+    static final int MARKER = 1;
+    private static final int MAX_LONG_VARINT_LENGTH = 10;
+    private static final int MAX_HEADER_LENGTH = 1 + 5 + 2 * MAX_LONG_VARINT_LENGTH;
+
+    private final long id;
+    private final long offset;
+    private final ByteBuffer data;
+
+    private Chunk(long id, long offset, ByteBuffer data) {
+        this.id = id;
+        this.offset = offset;
+        this.data = data;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * A view of the connection's receive buffer, only valid until {@link TCPConnectionListener#onChunk} returns.
+     */
+    public ByteBuffer getData() {
+        return data;
+    }
+
+    /**
+     * @return the frame up to the data, which follows it on the wire
+     */
+    static ByteBuffer header(long id, long offset, int dataLength) {
+        byte[] bytes = new byte[MAX_HEADER_LENGTH];
+        int payloadLength = varintLength(id) + varintLength(offset) + dataLength;
+        bytes[0] = MARKER;
+        int position = writeVarint(bytes, 1, payloadLength);
+        position = writeVarint(bytes, position, id);
+        position = writeVarint(bytes, position, offset);
+        return ByteBuffer.wrap(bytes, 0, position);
+    }
+
+    /**
+     * @param frame a whole chunk frame
+     * @return null if the frame is malformed
+     */
+    static Chunk decode(ByteBuffer frame) {
+        int[] position = {frame.position() + 1};
+        long payloadLength = readVarint(frame, position);
+        long id = readVarint(frame, position);
+        long offset = readVarint(frame, position);
+        if (payloadLength < 0 || id < 0 || offset < 0) {
+            return null;
+        }
+        ByteBuffer data = frame.duplicate();
+        data.position(position[0]);
+        return new Chunk(id, offset, data.slice().asReadOnlyBuffer());
+    }
+
+    private static int writeVarint(byte[] bytes, int position, long value) {
+        while ((value & ~0x7FL) != 0) {
+            bytes[position++] = (byte) (value & 0x7F | 0x80);
+            value >>>= 7;
+        }
+        bytes[position++] = (byte) value;
+        return position;
+    }
+
+    private static int varintLength(long value) {
+        int length = 1;
+        while ((value & ~0x7FL) != 0) {
+            value >>>= 7;
+            length++;
+        }
+        return length;
+    }
+
+    /**
+     * @return -1 if the varint is malformed or runs past the frame
+     */
+    private static long readVarint(ByteBuffer frame, int[] position) {
+        long value = 0;
+        for (int shift = 0; shift < 7 * MAX_LONG_VARINT_LENGTH; shift += 7) {
+            if (position[0] >= frame.limit()) {
+                return -1;
+            }
+            byte b = frame.get(position[0]++);
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,53 @@
+package org.example;
+
+import java.util.Optional;
+
+/**
+ * Room commands carried in {@link Message#getCommand()}; the room they apply to is in {@link Message#getRoom()}.
+ * PING and PONG are heartbeats answered by {@link TCPConnection} itself and never reach the listener; the
+ * server only pings clients that declared {@link Feature#HEARTBEAT}.
+ * ROSTER, ONLINE and OFFLINE come from the server only: a snapshot of online user names, separated by
+ * new lines, followed by one name per change, all in {@link Message#getText()}; they only go to clients
+ * that declared {@link Feature#PRESENCE}.
+ * SESSION carries the session token from the server, with text "joined" or "resumed"; a join only gets
+ * one if the client declared {@link Feature#SESSION}. A handshake with
+ * RESUME and a token resumes that session; its text has a "seq room" line for the last message seen in
+ * each room, an empty room standing for the default one.
+ * UPLOAD and DOWNLOAD carry an attachment id in {@link Message#getToken()}. A client's UPLOAD has
+ * "size file name" in its text and the room to announce the attachment in; the server answers with the
+ * offset to send chunks from, so an interrupted upload is resumed by sending it again. A client's DOWNLOAD
+ * has the offset to start from; the server answers with "size file name" and the chunks.
+ */
+public enum Command {
+    JOIN("join"),
+    LEAVE("leave"),
+    LIST("list"),
+    PING("ping"),
+    PONG("pong"),
+    ROSTER("roster"),
+    ONLINE("online"),
+    OFFLINE("offline"),
+    SESSION("session"),
+    RESUME("resume"),
+    UPLOAD("upload"),
+    DOWNLOAD("download");
+
+    private final String wireName;
+
+    Command(String wireName) {
+        this.wireName = wireName;
+    }
+
+    public String getWireName() {
+        return wireName;
+    }
+
+    public static Optional<Command> forName(String wireName) {
+        for (Command command : values()) {
+            if (command.wireName.equals(wireName)) {
+                return Optional.of(command);
+            }
+        }
+        return Optional.empty();
+    }
+}
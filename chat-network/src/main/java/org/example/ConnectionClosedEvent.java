@@ -0,0 +1,21 @@
+package org.example;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("org.example.ConnectionClosed")
+@Label("Connection Closed")
+@Category({"Chat", "Connection"})
+@Description("A chat connection was closed")
+@StackTrace(false)
+class ConnectionClosedEvent extends Event {
+    @Label("Connection")
+    String connection;
+
+    @Label("Transport")
+    String transport;
+}
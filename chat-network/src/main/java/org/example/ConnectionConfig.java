@@ -0,0 +1,41 @@
+package org.example;
+
+import lombok.Builder;
+import lombok.Getter;
+
+@Getter
+@Builder(toBuilder = true)
+public class ConnectionConfig {
+    @Builder.Default
+    private final int outboundQueueCapacity = 1024;
+    @Builder.Default
+    private final SlowConsumerPolicy slowConsumerPolicy = SlowConsumerPolicy.DROP_OLDEST;
+    @Builder.Default
+    private final long maxBacklogMillis = 5000;
+    @Builder.Default
+    private final long maxFlushDelayMicros = 0;
+    @Builder.Default
+    private final int maxBatchBytes = 64 * 1024;
+    /**
+     * Incoming message rate limit, 0 for unlimited.
+     */
+    @Builder.Default
+    private final double maxMessagesPerSecond = 0;
+    @Builder.Default
+    private final int messageBurst = 20;
+    /**
+     * Incoming byte rate limit, 0 for unlimited.
+     */
+    @Builder.Default
+    private final long maxBytesPerSecond = 0;
+    @Builder.Default
+    private final long byteBurst = 256 * 1024;
+    @Builder.Default
+    private final RateLimitPolicy rateLimitPolicy = RateLimitPolicy.DELAY;
+    @Builder.Default
+    private final ConnectionMetrics metrics = new ConnectionMetrics();
+
+    public static ConnectionConfig defaults() {
+        return ConnectionConfig.builder().build();
+    }
+}
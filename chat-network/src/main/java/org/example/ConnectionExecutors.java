@@ -0,0 +1,33 @@
+package org.example;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public final class ConnectionExecutors {
+    private static final Logger logger = LoggerFactory.getLogger(ConnectionExecutors.class);
+
+    private ConnectionExecutors() {
+    }
+
+    public static Executor platformThreads() {
+        return runnable -> new Thread(runnable).start();
+    }
+
+    /**
+     * Looked up reflectively so the build keeps targeting pre-21 JDKs; falls back to a cached pool there.
+     */
+    public static ExecutorService virtualThreads() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (NoSuchMethodException | IllegalAccessException | InvocationTargetException e) {
+            logger.warn("Virtual threads are not available on Java {}, using cached thread pool",
+                    System.getProperty("java.version"));
+            return Executors.newCachedThreadPool();
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package org.example;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Totals of all connections created with one {@link ConnectionConfig}. Connections only add to
+ * striped counters, so recording stays off the contended path.
+ */
+public class ConnectionMetrics implements ConnectionMetricsMBean {
+    private final LongAdder opened = new LongAdder();
+    private final LongAdder closed = new LongAdder();
+    private final Meter messagesIn = new Meter();
+    private final Meter messagesOut = new Meter();
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder throttledMessages = new LongAdder();
+    private final LongAdder throttledBytes = new LongAdder();
+    private final LongAdder throttleDelayNanos = new LongAdder();
+
+    void recordOpened() {
+        opened.increment();
+    }
+
+    void recordClosed() {
+        closed.increment();
+    }
+
+    void recordBytesIn(int bytes) {
+        bytesIn.add(bytes);
+    }
+
+    void recordMessageIn() {
+        messagesIn.mark();
+    }
+
+    void recordOut(int frames, long bytes) {
+        messagesOut.mark(frames);
+        bytesOut.add(bytes);
+    }
+
+    void recordDropped() {
+        dropped.increment();
+    }
+
+    /**
+     * @param delayNanos how long reading is paused, 0 if the message was dropped
+     */
+    void recordThrottled(int bytes, long delayNanos) {
+        throttledMessages.increment();
+        throttledBytes.add(bytes);
+        throttleDelayNanos.add(delayNanos);
+    }
+
+    @Override
+    public long getActiveConnections() {
+        return opened.sum() - closed.sum();
+    }
+
+    @Override
+    public long getOpenedConnections() {
+        return opened.sum();
+    }
+
+    @Override
+    public long getClosedConnections() {
+        return closed.sum();
+    }
+
+    @Override
+    public long getMessagesIn() {
+        return messagesIn.getCount();
+    }
+
+    @Override
+    public double getMessagesInPerSecond() {
+        return messagesIn.getRatePerSecond();
+    }
+
+    @Override
+    public long getMessagesOut() {
+        return messagesOut.getCount();
+    }
+
+    @Override
+    public double getMessagesOutPerSecond() {
+        return messagesOut.getRatePerSecond();
+    }
+
+    @Override
+    public long getBytesIn() {
+        return bytesIn.sum();
+    }
+
+    @Override
+    public long getBytesOut() {
+        return bytesOut.sum();
+    }
+
+    @Override
+    public long getDroppedMessages() {
+        return dropped.sum();
+    }
+
+    @Override
+    public long getThrottledMessages() {
+        return throttledMessages.sum();
+    }
+
+    @Override
+    public long getThrottledBytes() {
+        return throttledBytes.sum();
+    }
+
+    @Override
+    public long getThrottleDelayMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(throttleDelayNanos.sum());
+    }
+}
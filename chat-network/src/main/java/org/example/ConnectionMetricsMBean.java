@@ -0,0 +1,29 @@
+package org.example;
+
+public interface ConnectionMetricsMBean {
+    long getActiveConnections();
+
+    long getOpenedConnections();
+
+    long getClosedConnections();
+
+    long getMessagesIn();
+
+    double getMessagesInPerSecond();
+
+    long getMessagesOut();
+
+    double getMessagesOutPerSecond();
+
+    long getBytesIn();
+
+    long getBytesOut();
+
+    long getDroppedMessages();
+
+    long getThrottledMessages();
+
+    long getThrottledBytes();
+
+    long getThrottleDelayMillis();
+}
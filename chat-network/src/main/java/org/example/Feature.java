@@ -0,0 +1,65 @@
+package org.example;
+
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * What a client handles beyond chat lines, declared in {@link Message#getFeatures()} of its handshake as
+ * space-separated wire names. Clients that predate features declare none and print every frame they get
+ * as a chat line, so the server only sends them what they declared.
+ */
+public enum Feature {
+    /**
+     * Answers PING with PONG: the server pings the client when it is silent and disconnects it when idle.
+     */
+    HEARTBEAT("heartbeat"),
+    /**
+     * Takes the ROSTER snapshot and the ONLINE and OFFLINE changes.
+     */
+    PRESENCE("presence"),
+    /**
+     * Takes the SESSION token, to resume the session after a reconnect.
+     */
+    SESSION("session");
+
+    private final String wireName;
+
+    Feature(String wireName) {
+        this.wireName = wireName;
+    }
+
+    public String getWireName() {
+        return wireName;
+    }
+
+    /**
+     * Unknown names, from newer clients, are ignored.
+     */
+    public static Set<Feature> parse(String features) {
+        Set<Feature> parsed = EnumSet.noneOf(Feature.class);
+        if (features == null) {
+            return parsed;
+        }
+        for (String name : features.split(" ")) {
+            for (Feature feature : values()) {
+                if (feature.wireName.equals(name)) {
+                    parsed.add(feature);
+                }
+            }
+        }
+        return parsed;
+    }
+
+    public static String format(Collection<Feature> features) {
+        return features.stream().map(Feature::getWireName).collect(Collectors.joining(" "));
+    }
+
+    /**
+     * @return every feature of this version, for a client's handshake
+     */
+    public static String all() {
+        return format(EnumSet.allOf(Feature.class));
+    }
+}
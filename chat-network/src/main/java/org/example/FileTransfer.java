@@ -0,0 +1,93 @@
+package org.example;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * A region of a file being sent as chunks. The data goes from the file to the channel with
+ * {@link FileChannel#transferTo}, which is a zero-copy sendfile when the channel is a socket channel.
+ */
+class FileTransfer implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(FileTransfer.class);
+
+    private final long id;
+    private final FileChannel file;
+    private final long end;
+    private long position;
+    private ByteBuffer header;
+    private long chunkEnd;
+    private int chunkBytes;
+    private volatile boolean cancelled;
+
+    FileTransfer(long id, FileChannel file, long offset, long length) {
+        this.id = id;
+        this.file = file;
+        this.position = offset;
+        this.end = offset + length;
+    }
+
+    long getId() {
+        return id;
+    }
+
+    /**
+     * Takes effect at the next chunk; a chunk already started is finished so the stream stays framed.
+     */
+    void cancel() {
+        cancelled = true;
+    }
+
+    boolean isInChunk() {
+        return header != null;
+    }
+
+    boolean isDone() {
+        return header == null && (position >= end || cancelled);
+    }
+
+    /**
+     * Writes the next chunk, or what is left of a chunk partly written before.
+     *
+     * @return the frame bytes of the chunk once it is written whole, 0 if the channel cannot take more now
+     */
+    int writeChunk(WritableByteChannel channel) throws IOException {
+        if (header == null) {
+            int length = (int) Math.min(Chunk.MAX_DATA_LENGTH, end - position);
+            header = Chunk.header(id, position, length);
+            chunkEnd = position + length;
+            chunkBytes = header.remaining() + length;
+        }
+        while (header.hasRemaining()) {
+            if (channel.write(header) == 0) {
+                return 0;
+            }
+        }
+        while (position < chunkEnd) {
+            long sent = file.transferTo(position, chunkEnd - position, channel);
+            if (sent == 0) {
+                if (file.size() < chunkEnd) {
+                    throw new IOException("File of transfer " + id + " was truncated to " + file.size() + " bytes");
+                }
+                return 0;
+            }
+            position += sent;
+        }
+        header = null;
+        return chunkBytes;
+    }
+
+    @Override
+    public void close() {
+        try {
+            file.close();
+        } catch (IOException e) {
+            logger.error("Cannot close file of transfer {}", id, e);
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package org.example;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Sizes of the batches written by one flush. The histogram counts batches by frame count in
+ * power-of-two buckets: 1, 2-3, 4-7, ... , 32768 and more.
+ */
+public class FlushStats {
+    private static final int BUCKETS = 16;
+
+    private final LongAdder flushes = new LongAdder();
+    private final LongAdder frames = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final LongAccumulator maxFrames = new LongAccumulator(Math::max, 0);
+    private final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+
+    public void record(int batchFrames, long batchBytes) {
+        flushes.increment();
+        frames.add(batchFrames);
+        bytes.add(batchBytes);
+        maxFrames.accumulate(batchFrames);
+        histogram.incrementAndGet(Math.min(BUCKETS - 1, 31 - Integer.numberOfLeadingZeros(Math.max(1, batchFrames))));
+    }
+
+    public long getFlushes() {
+        return flushes.sum();
+    }
+
+    public long getFrames() {
+        return frames.sum();
+    }
+
+    public long getBytes() {
+        return bytes.sum();
+    }
+
+    public long getMaxFrames() {
+        return maxFrames.get();
+    }
+
+    public double getAverageFrames() {
+        long count = flushes.sum();
+        return count == 0 ? 0 : (double) frames.sum() / count;
+    }
+
+    public long[] getHistogram() {
+        long[] snapshot = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = histogram.get(i);
+        }
+        return snapshot;
+    }
+}
@@ -0,0 +1,128 @@
+package org.example;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Per-connection receive buffer. Bytes read from the socket are decoded in place, frame by frame,
+ * with the codec recognized from the first byte of every frame. File chunks are told apart the same way.
+ */
+public class FrameDecoder {
+    private static final int INITIAL_CAPACITY = 8192;
+
+    private byte[] bytes;
+    private int start;
+    private int end;
+    private MessageCodec frameCodec;
+    private int frameLength;
+    private boolean chunk;
+
+    public FrameDecoder() {
+        this.bytes = new byte[INITIAL_CAPACITY];
+        this.frameLength = -1;
+    }
+
+    public int read(InputStream in) throws IOException {
+        prepareWrite();
+        int read = in.read(bytes, end, bytes.length - end);
+        if (read > 0) {
+            end += read;
+        }
+        return read;
+    }
+
+    public int read(ReadableByteChannel channel) throws IOException {
+        prepareWrite();
+        int read = channel.read(ByteBuffer.wrap(bytes, end, bytes.length - end));
+        if (read > 0) {
+            end += read;
+        }
+        return read;
+    }
+
+    public boolean hasFrame() throws IOException {
+        if (frameLength >= 0) {
+            return true;
+        }
+        if (start == end) {
+            return false;
+        }
+        chunk = bytes[start] == Chunk.MARKER;
+        // chunks have the length prefix of binary frames
+        frameCodec = chunk ? MessageCodecs.BINARY : MessageCodecs.detect(bytes[start]);
+        frameLength = frameCodec.frameLength(ByteBuffer.wrap(bytes, start, end - start));
+        return frameLength >= 0;
+    }
+
+    /**
+     * Must only be called after {@link #hasFrame()} returned true.
+     */
+    public int frameLength() {
+        return frameLength;
+    }
+
+    /**
+     * Must only be called after {@link #hasFrame()} returned true.
+     */
+    public void skip() {
+        start += frameLength;
+        frameLength = -1;
+    }
+
+    /**
+     * Must only be called after {@link #hasFrame()} returned true.
+     *
+     * @return true if the frame is to be read with {@link #nextChunk()}
+     */
+    public boolean isChunk() {
+        return chunk;
+    }
+
+    /**
+     * Must only be called after {@link #hasFrame()} returned true for a chunk. The chunk's data stays in
+     * this buffer and is only valid until the next read.
+     *
+     * @return decoded chunk or null if the frame is malformed
+     */
+    public Chunk nextChunk() {
+        ByteBuffer frame = ByteBuffer.wrap(bytes, start, frameLength).slice();
+        start += frameLength;
+        frameLength = -1;
+        return Chunk.decode(frame);
+    }
+
+    /**
+     * Must only be called after {@link #hasFrame()} returned true.
+     *
+     * @return decoded message or null if the frame is malformed
+     */
+    public Message next() {
+        ByteBuffer frame = ByteBuffer.wrap(bytes, start, frameLength).slice();
+        start += frameLength;
+        frameLength = -1;
+        return frameCodec.decode(frame);
+    }
+
+    private void prepareWrite() throws IOException {
+        if (start == end) {
+            start = 0;
+            end = 0;
+        }
+        if (end < bytes.length) {
+            return;
+        }
+        if (start > 0) {
+            System.arraycopy(bytes, start, bytes, 0, end - start);
+            end -= start;
+            start = 0;
+        } else if (bytes.length > MessageCodec.MAX_FRAME_LENGTH) {
+            throw new IOException("Frame exceeds " + MessageCodec.MAX_FRAME_LENGTH + " bytes");
+        } else {
+            byte[] grown = new byte[bytes.length * 2];
+            System.arraycopy(bytes, 0, grown, 0, end);
+            bytes = grown;
+        }
+    }
+}
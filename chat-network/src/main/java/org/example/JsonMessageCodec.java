@@ -0,0 +1,269 @@
+package org.example;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.CharacterEscapes;
+import com.fasterxml.jackson.core.io.SerializedString;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Newline-delimited JSON written and parsed with the Jackson streaming API. Output is byte-compatible
+ * with the Gson lines older peers produce: null fields are omitted and Gson's HTML-safe escapes are kept.
+ */
+public class JsonMessageCodec implements MessageCodec {
+    private static final Logger logger = LoggerFactory.getLogger(JsonMessageCodec.class);
+    private static final String NAME = "json";
+    private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(StandardCharsets.US_ASCII);
+    private static final int INITIAL_FRAME_CAPACITY = 128;
+    private static final String[] ASCII_ESCAPES = asciiEscapes();
+
+    private final JsonFactory factory;
+
+    public JsonMessageCodec() {
+        this.factory = new JsonFactory();
+        this.factory.setCharacterEscapes(new GsonCharacterEscapes());
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public Frame encode(Message message) {
+        MessageEncodedEvent event = new MessageEncodedEvent();
+        event.begin();
+        FrameOutputStream out = new FrameOutputStream();
+        try (JsonGenerator generator = factory.createGenerator(out)) {
+            generator.writeStartObject();
+            writeField(generator, "name", message.getName());
+            writeField(generator, "text", message.getText());
+            writeField(generator, "time", message.getTime());
+            writeField(generator, "codec", message.getCodec());
+            writeField(generator, "room", message.getRoom());
+            writeField(generator, "command", message.getCommand());
+            writeField(generator, "recipient", message.getRecipient());
+            if (message.getSeq() != null) {
+                generator.writeNumberField("seq", message.getSeq());
+            }
+            writeField(generator, "token", message.getToken());
+            writeField(generator, "features", message.getFeatures());
+            generator.writeEndObject();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        out.write(LINE_SEPARATOR, 0, LINE_SEPARATOR.length);
+        Frame frame = out.toFrame();
+        event.finish(NAME, frame);
+        return frame;
+    }
+
+    @Override
+    public int frameLength(ByteBuffer buffer) throws IOException {
+        for (int i = buffer.position(); i < buffer.limit(); i++) {
+            if (buffer.get(i) == '\n') {
+                return i - buffer.position() + 1;
+            }
+        }
+        if (buffer.remaining() > MAX_FRAME_LENGTH) {
+            throw new IOException("Line is longer than " + MAX_FRAME_LENGTH + " bytes");
+        }
+        return -1;
+    }
+
+    @Override
+    public Message decode(ByteBuffer frame) {
+        try (JsonParser parser = factory.createParser(frame.array(), frame.arrayOffset() + frame.position(),
+                frame.remaining())) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return null;
+            }
+            Message.MessageBuilder builder = Message.builder();
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                parser.nextToken();
+                switch (field) {
+                    case "name":
+                        builder.name(parser.getValueAsString());
+                        break;
+                    case "text":
+                        builder.text(parser.getValueAsString());
+                        break;
+                    case "time":
+                        builder.time(parser.getValueAsString());
+                        break;
+                    case "codec":
+                        builder.codec(parser.getValueAsString());
+                        break;
+                    case "room":
+                        builder.room(parser.getValueAsString());
+                        break;
+                    case "command":
+                        builder.command(parser.getValueAsString());
+                        break;
+                    case "recipient":
+                        builder.recipient(parser.getValueAsString());
+                        break;
+                    case "seq":
+                        builder.seq(parser.getValueAsLong());
+                        break;
+                    case "token":
+                        builder.token(parser.getValueAsString());
+                        break;
+                    case "features":
+                        builder.features(parser.getValueAsString());
+                        break;
+                    default:
+                        parser.skipChildren();
+                        break;
+                }
+            }
+            return builder.build();
+        } catch (IOException e) {
+            logger.error("Reading message error: cannot parse to object line {}",
+                    StandardCharsets.UTF_8.decode(frame));
+            return null;
+        }
+    }
+
+    private static void writeField(JsonGenerator generator, String field, String value) throws IOException {
+        if (value == null) {
+            return;
+        }
+        if (hasSurrogates(value)) {
+            byte[] escaped = escapeAsGson(value);
+            generator.writeFieldName(field);
+            generator.writeRawUTF8String(escaped, 0, escaped.length);
+        } else {
+            generator.writeStringField(field, value);
+        }
+    }
+
+    private static boolean hasSurrogates(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            if (Character.isSurrogate(value.charAt(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Jackson 2.12 always escapes surrogate pairs while Gson writes them as raw 4-byte UTF-8,
+     * so strings with supplementary characters (emoji) are escaped here and written raw.
+     */
+    private static byte[] escapeAsGson(String value) {
+        StringBuilder escaped = new StringBuilder(value.length() + 16);
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            String escape = gsonEscape(c);
+            if (escape != null) {
+                escaped.append(escape);
+            } else {
+                escaped.append(c);
+            }
+        }
+        return escaped.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String gsonEscape(int ch) {
+        if (ch < ASCII_ESCAPES.length) {
+            return ASCII_ESCAPES[ch];
+        }
+        return ch == '\u2028' || ch == '\u2029' ? String.format("\\u%04x", ch) : null;
+    }
+
+    private static String[] asciiEscapes() {
+        String[] escapes = new String[128];
+        for (int ch = 0; ch < escapes.length; ch++) {
+            escapes[ch] = computeGsonEscape(ch);
+        }
+        return escapes;
+    }
+
+    private static String computeGsonEscape(int ch) {
+        switch (ch) {
+            case '"':
+                return "\\\"";
+            case '\\':
+                return "\\\\";
+            case '\t':
+                return "\\t";
+            case '\b':
+                return "\\b";
+            case '\n':
+                return "\\n";
+            case '\r':
+                return "\\r";
+            case '\f':
+                return "\\f";
+            case '<':
+            case '>':
+            case '&':
+            case '=':
+            case '\'':
+                return String.format("\\u%04x", ch);
+            default:
+                return ch < 0x20 ? String.format("\\u%04x", ch) : null;
+        }
+    }
+
+    private static class FrameOutputStream extends ByteArrayOutputStream {
+        FrameOutputStream() {
+            super(INITIAL_FRAME_CAPACITY);
+        }
+
+        Frame toFrame() {
+            return new Frame(buf, 0, count);
+        }
+    }
+
+    private static class GsonCharacterEscapes extends CharacterEscapes {
+        private static final long serialVersionUID = 1L;
+        private static final SerializableString[] SERIALIZED_ASCII_ESCAPES = new SerializableString[128];
+
+        static {
+            for (int ch = 0; ch < SERIALIZED_ASCII_ESCAPES.length; ch++) {
+                if (ASCII_ESCAPES[ch] != null) {
+                    SERIALIZED_ASCII_ESCAPES[ch] = new SerializedString(ASCII_ESCAPES[ch]);
+                }
+            }
+        }
+
+        private final int[] asciiEscapes;
+
+        GsonCharacterEscapes() {
+            asciiEscapes = standardAsciiEscapesForJSON();
+            for (int c = 0; c < 0x20; c++) {
+                asciiEscapes[c] = ESCAPE_CUSTOM;
+            }
+            for (char c : new char[]{'<', '>', '&', '=', '\''}) {
+                asciiEscapes[c] = ESCAPE_CUSTOM;
+            }
+        }
+
+        @Override
+        public int[] getEscapeCodesForAscii() {
+            return asciiEscapes;
+        }
+
+        @Override
+        public SerializableString getEscapeSequence(int ch) {
+            if (ch < SERIALIZED_ASCII_ESCAPES.length) {
+                return SERIALIZED_ASCII_ESCAPES[ch];
+            }
+            String escape = gsonEscape(ch);
+            return escape == null ? null : new SerializedString(escape);
+        }
+    }
+}
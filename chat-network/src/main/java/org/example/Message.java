@@ -4,6 +4,7 @@ import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
 import lombok.NoArgsConstructor;
+import lombok.ToString;
 
 @Data
 @Builder
@@ -14,4 +15,25 @@ public class Message {
     private String name;
     private String text;
     private String time;
+    private String codec;
+    private String room;
+    private String command;
+    /**
+     * Name of the only user a direct message goes to; null for room messages.
+     */
+    private String recipient;
+    /**
+     * Position of a room message in its room, assigned by the server; increases across server restarts.
+     */
+    private Long seq;
+    /**
+     * Session token: issued by the server on join, presented by the client to resume the session. Left out
+     * of toString, so logging a message does not leak it.
+     */
+    @ToString.Exclude
+    private String token;
+    /**
+     * Handshake only: the {@link Feature} wire names the client supports, separated by spaces.
+     */
+    private String features;
 }
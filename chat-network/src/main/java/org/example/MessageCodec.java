@@ -0,0 +1,24 @@
+package org.example;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+public interface MessageCodec {
+    int MAX_FRAME_LENGTH = 1 << 20;
+
+    String getName();
+
+    Frame encode(Message message);
+
+    /**
+     * @return length of the first complete frame starting at the buffer position or -1 if more bytes are needed
+     */
+    int frameLength(ByteBuffer buffer) throws IOException;
+
+    /**
+     * Decodes one frame occupying all remaining bytes of the buffer.
+     *
+     * @return decoded message or null if the frame is malformed
+     */
+    Message decode(ByteBuffer frame);
+}
@@ -0,0 +1,29 @@
+package org.example;
+
+import java.util.Optional;
+
+public final class MessageCodecs {
+    public static final MessageCodec JSON = new JsonMessageCodec();
+    public static final MessageCodec BINARY = new BinaryMessageCodec();
+
+    private MessageCodecs() {
+    }
+
+    public static Optional<MessageCodec> forName(String name) {
+        if (JSON.getName().equals(name)) {
+            return Optional.of(JSON);
+        }
+        if (BINARY.getName().equals(name)) {
+            return Optional.of(BINARY);
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Frames of different codecs can be told apart by their first byte, so a peer may switch codecs
+     * at any frame boundary after the handshake.
+     */
+    public static MessageCodec detect(int firstByte) {
+        return firstByte == BinaryMessageCodec.MARKER ? BINARY : JSON;
+    }
+}
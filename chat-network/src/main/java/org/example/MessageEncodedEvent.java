@@ -0,0 +1,32 @@
+package org.example;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("org.example.MessageEncoded")
+@Label("Message Encoded")
+@Category({"Chat", "Message"})
+@Description("Encoding of one message into a frame")
+@StackTrace(false)
+class MessageEncodedEvent extends Event {
+    @Label("Codec")
+    String codec;
+
+    @Label("Frame Size")
+    @DataAmount
+    int bytes;
+
+    void finish(String codec, Frame frame) {
+        end();
+        if (shouldCommit()) {
+            this.codec = codec;
+            this.bytes = frame.length();
+            commit();
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package org.example;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("org.example.MessageReceived")
+@Label("Message Received")
+@Category({"Chat", "Message"})
+@Description("Decoding of one received frame into a message")
+@StackTrace(false)
+class MessageReceivedEvent extends Event {
+    @Label("Connection")
+    String connection;
+}
@@ -0,0 +1,46 @@
+package org.example;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Event counter with a per-second rate. Marking is a striped LongAdder increment; the rate is
+ * computed by readers over the last window of at least one second.
+ */
+public class Meter {
+    private static final long WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final LongAdder count;
+    private long windowStartNanos;
+    private long windowStartCount;
+    private double ratePerSecond;
+
+    public Meter() {
+        this.count = new LongAdder();
+        this.windowStartNanos = System.nanoTime();
+    }
+
+    public void mark() {
+        count.increment();
+    }
+
+    public void mark(long events) {
+        count.add(events);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public synchronized double getRatePerSecond() {
+        long now = System.nanoTime();
+        long elapsed = now - windowStartNanos;
+        if (elapsed >= WINDOW_NANOS) {
+            long current = count.sum();
+            ratePerSecond = (current - windowStartCount) * (double) TimeUnit.SECONDS.toNanos(1) / elapsed;
+            windowStartCount = current;
+            windowStartNanos = now;
+        }
+        return ratePerSecond;
+    }
+}
@@ -0,0 +1,187 @@
+package org.example;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+public class NioEventLoop implements Runnable {
+    private static final Logger logger = LoggerFactory.getLogger(NioEventLoop.class);
+
+    private final Selector selector;
+    private final Thread thread;
+    private final Queue<Runnable> tasks;
+    private final PriorityQueue<ScheduledTask> scheduledTasks;
+    private volatile boolean running;
+
+    public NioEventLoop(String name) throws IOException {
+        this.selector = Selector.open();
+        this.tasks = new ConcurrentLinkedQueue<>();
+        this.scheduledTasks = new PriorityQueue<>(Comparator.comparingLong(task -> task.deadline));
+        this.thread = new Thread(this, name);
+    }
+
+    public void start() {
+        running = true;
+        thread.start();
+        logger.info("Event loop {} started", thread.getName());
+    }
+
+    public void shutdown() {
+        running = false;
+        selector.wakeup();
+    }
+
+    public boolean inEventLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    public void execute(Runnable task) {
+        tasks.add(task);
+        if (!inEventLoop()) {
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * Delays are served with selector timeouts, so they are rounded up to whole milliseconds.
+     */
+    public void schedule(Runnable task, long delay, TimeUnit unit) {
+        long deadline = System.nanoTime() + unit.toNanos(delay);
+        execute(() -> scheduledTasks.add(new ScheduledTask(deadline, task)));
+    }
+
+    public void register(SocketChannel channel, TCPConnectionListener listener, ConnectionConfig config) {
+        execute(() -> {
+            try {
+                channel.configureBlocking(false);
+                NioTCPConnection connection = new NioTCPConnection(listener, channel, this, config);
+                connection.setSelectionKey(channel.register(selector, SelectionKey.OP_READ, connection));
+                listener.onConnectionReady(connection);
+            } catch (IOException e) {
+                logger.error("Cannot register channel {} in event loop {}", channel, thread.getName(), e);
+                closeQuietly(channel);
+            }
+        });
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                long timeout = selectTimeoutMillis();
+                if (timeout < 0) {
+                    selector.selectNow();
+                } else {
+                    selector.select(timeout);
+                }
+            } catch (IOException e) {
+                logger.error("Select error in event loop {}", thread.getName(), e);
+                break;
+            }
+            processSelectedKeys();
+            runTasks();
+            runScheduledTasks();
+        }
+        closeAll();
+        logger.info("Event loop {} stopped", thread.getName());
+    }
+
+    /**
+     * @return -1 to poll without blocking, 0 to block until woken up, otherwise the time to the next scheduled task
+     */
+    private long selectTimeoutMillis() {
+        if (!tasks.isEmpty()) {
+            return -1;
+        }
+        ScheduledTask next = scheduledTasks.peek();
+        if (next == null) {
+            return 0;
+        }
+        long remaining = next.deadline - System.nanoTime();
+        return remaining <= 0 ? -1 : Math.max(1, TimeUnit.NANOSECONDS.toMillis(remaining + 999_999));
+    }
+
+    private void runScheduledTasks() {
+        long now = System.nanoTime();
+        ScheduledTask next;
+        while ((next = scheduledTasks.peek()) != null && next.deadline - now <= 0) {
+            scheduledTasks.poll();
+            tasks.add(next.task);
+        }
+        runTasks();
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                logger.error("Task error in event loop {}", thread.getName(), e);
+            }
+        }
+    }
+
+    private void processSelectedKeys() {
+        Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+        while (iterator.hasNext()) {
+            SelectionKey key = iterator.next();
+            iterator.remove();
+            NioTCPConnection connection = (NioTCPConnection) key.attachment();
+            try {
+                if (key.isValid() && key.isReadable()) {
+                    connection.handleRead();
+                }
+                if (key.isValid() && key.isWritable()) {
+                    connection.handleWrite();
+                }
+            } catch (RuntimeException e) {
+                logger.error("Error processing {} in event loop {}", connection, thread.getName(), e);
+                connection.close();
+            }
+        }
+    }
+
+    private void closeAll() {
+        for (SelectionKey key : selector.keys()) {
+            ((NioTCPConnection) key.attachment()).close();
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            logger.error("Cannot close selector of event loop {}", thread.getName(), e);
+        }
+    }
+
+    private static void closeQuietly(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "NioEventLoop(" + thread.getName() + ")";
+    }
+
+    private static class ScheduledTask {
+        private final long deadline;
+        private final Runnable task;
+
+        private ScheduledTask(long deadline, Runnable task) {
+            this.deadline = deadline;
+            this.task = task;
+        }
+    }
+}
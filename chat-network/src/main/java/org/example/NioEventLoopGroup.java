@@ -0,0 +1,50 @@
+package org.example;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class NioEventLoopGroup {
+    private static final Logger logger = LoggerFactory.getLogger(NioEventLoopGroup.class);
+
+    private final NioEventLoop[] eventLoops;
+    private final AtomicInteger nextIndex;
+    private final ConnectionConfig connectionConfig;
+
+    public NioEventLoopGroup(int threads) throws IOException {
+        this(threads, ConnectionConfig.defaults());
+    }
+
+    public NioEventLoopGroup(int threads, ConnectionConfig connectionConfig) throws IOException {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Event loop threads must be positive: " + threads);
+        }
+        this.eventLoops = new NioEventLoop[threads];
+        this.nextIndex = new AtomicInteger();
+        this.connectionConfig = connectionConfig;
+        for (int i = 0; i < threads; i++) {
+            eventLoops[i] = new NioEventLoop("nio-event-loop-" + i);
+        }
+        for (NioEventLoop eventLoop : eventLoops) {
+            eventLoop.start();
+        }
+        logger.info("Event loop group started with {} threads", threads);
+    }
+
+    public NioEventLoop next() {
+        return eventLoops[Math.floorMod(nextIndex.getAndIncrement(), eventLoops.length)];
+    }
+
+    public void register(SocketChannel channel, TCPConnectionListener listener) {
+        next().register(channel, listener, connectionConfig);
+    }
+
+    public void shutdown() {
+        for (NioEventLoop eventLoop : eventLoops) {
+            eventLoop.shutdown();
+        }
+    }
+}
@@ -0,0 +1,336 @@
+package org.example;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class NioTCPConnection extends TCPConnection {
+    private static final Logger logger = LoggerFactory.getLogger(NioTCPConnection.class);
+    private static final int MAX_BATCH_FRAMES = 64;
+    private static final int MAX_FLUSH_CHUNKS = 4;
+
+    private final SocketChannel channel;
+    private final NioEventLoop eventLoop;
+    private final FrameDecoder decoder;
+    private final OutboundQueue<Frame> outboundQueue;
+    private final Deque<FileTransfer> files;
+    private final AtomicBoolean flushScheduled;
+    private final AtomicBoolean closed;
+    private SelectionKey selectionKey;
+    private final ByteBuffer[] batch;
+    private int batchStart;
+    private int batchEnd;
+    private volatile int lastBatchFrames;
+    private boolean readPaused;
+
+    NioTCPConnection(TCPConnectionListener listener, SocketChannel channel, NioEventLoop eventLoop,
+                     ConnectionConfig config) {
+        super(listener, channel.socket(), config);
+        logger.info("Constructor TCPConnection-NIO");
+        this.channel = channel;
+        this.eventLoop = eventLoop;
+        this.decoder = new FrameDecoder();
+        this.outboundQueue = new OutboundQueue<>(config);
+        this.batch = new ByteBuffer[MAX_BATCH_FRAMES];
+        this.files = new ArrayDeque<>();
+        this.flushScheduled = new AtomicBoolean();
+        this.closed = new AtomicBoolean();
+    }
+
+    void setSelectionKey(SelectionKey selectionKey) {
+        this.selectionKey = selectionKey;
+    }
+
+    @Override
+    public void sendFrame(Frame frame) {
+        if (closed.get()) {
+            return;
+        }
+        if (!outboundQueue.offer(frame)) {
+            logger.warn("Connection {} is too slow, outbound backlog {}. Disconnecting", this, outboundQueue.size());
+            disconnect();
+            return;
+        }
+        scheduleFlush();
+    }
+
+    /**
+     * Chunks go from the file to the socket with a zero-copy transferTo, one at a time while no messages
+     * are queued, and a few per flush so one transfer does not hold up the other connections of the loop.
+     */
+    @Override
+    public void sendFile(long id, FileChannel file, long offset, long length) {
+        FileTransfer transfer = new FileTransfer(id, file, offset, length);
+        eventLoop.execute(() -> {
+            if (closed.get()) {
+                transfer.close();
+                return;
+            }
+            for (FileTransfer sending : files) {
+                if (sending.getId() == id) {
+                    sending.cancel();
+                }
+            }
+            files.add(transfer);
+            scheduleFlush();
+        });
+    }
+
+    @Override
+    public int getOutboundBacklog() {
+        return outboundQueue.size();
+    }
+
+    @Override
+    public long getQueuedMessages() {
+        return outboundQueue.getQueued();
+    }
+
+    @Override
+    public long getDroppedMessages() {
+        return outboundQueue.getDropped();
+    }
+
+    @Override
+    protected boolean isBacklogExpired() {
+        return outboundQueue.isBacklogExpired();
+    }
+
+    /**
+     * Always deferred to the event loop: the caller may be iterating the listener's connections.
+     */
+    @Override
+    public void disconnect() {
+        logger.info("Method disconnect {}", this);
+        eventLoop.execute(this::close);
+    }
+
+    void handleRead() {
+        try {
+            int read = decoder.read(channel);
+            if (read < 0) {
+                close();
+                return;
+            }
+            bytesRead(read);
+            processFrames();
+        } catch (IOException e) {
+            listener.onException(this, e);
+            close();
+        }
+    }
+
+    private void processFrames() throws IOException {
+        while (!closed.get() && decoder.hasFrame()) {
+            getMetrics().recordMessageIn();
+            long pause = throttle(decoder.frameLength(), decoder.isChunk());
+            if (pause < 0) {
+                decoder.skip();
+                if (pause == THROTTLE_DISCONNECT) {
+                    close();
+                }
+                continue;
+            }
+            if (decoder.isChunk()) {
+                Chunk chunk = decoder.nextChunk();
+                if (chunk != null) {
+                    listener.onChunk(this, chunk);
+                }
+            } else {
+                MessageReceivedEvent event = new MessageReceivedEvent();
+                event.begin();
+                Message message = decoder.next();
+                messageReceived(event);
+                onMessage(message);
+            }
+            if (pause > 0) {
+                pauseReading(pause);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Frames already buffered wait as well, so nothing is delivered early.
+     */
+    private void pauseReading(long nanos) {
+        readPaused = true;
+        selectionKey.interestOps(selectionKey.interestOps() & ~SelectionKey.OP_READ);
+        eventLoop.schedule(this::resumeReading, nanos, TimeUnit.NANOSECONDS);
+    }
+
+    private void resumeReading() {
+        readPaused = false;
+        if (closed.get()) {
+            return;
+        }
+        selectionKey.interestOps(selectionKey.interestOps() | SelectionKey.OP_READ);
+        try {
+            processFrames();
+        } catch (IOException e) {
+            listener.onException(this, e);
+            close();
+        }
+    }
+
+    private int readInterest() {
+        return readPaused ? 0 : SelectionKey.OP_READ;
+    }
+
+    void handleWrite() {
+        flush();
+    }
+
+    void close() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        connectionClosed();
+        if (selectionKey != null) {
+            selectionKey.cancel();
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            logger.error("Error in nio disconnect method.", e);
+            listener.onException(this, e);
+        }
+        Arrays.fill(batch, null);
+        outboundQueue.clear();
+        FileTransfer file;
+        while ((file = files.poll()) != null) {
+            file.close();
+        }
+        listener.onDisconnect(this);
+    }
+
+    private void onMessage(Message message) {
+        if (message != null && !onHeartbeat(message)) {
+            listener.onReceiveMessage(this, message);
+        }
+    }
+
+    private void scheduleFlush() {
+        if (flushScheduled.compareAndSet(false, true)) {
+            if (getMaxFlushDelayNanos() > 0 && lastBatchFrames > 1) {
+                eventLoop.schedule(this::flush, getMaxFlushDelayNanos(), TimeUnit.NANOSECONDS);
+            } else {
+                eventLoop.execute(this::flush);
+            }
+        }
+    }
+
+    private void flush() {
+        flushScheduled.set(false);
+        if (closed.get()) {
+            return;
+        }
+        try {
+            // a chunk partly written is finished before anything else goes to the socket
+            FileTransfer started = files.peek();
+            if (started != null && started.isInChunk() && !writeChunk(started)) {
+                selectionKey.interestOps(readInterest() | SelectionKey.OP_WRITE);
+                return;
+            }
+            while (fillBatch()) {
+                channel.write(batch, batchStart, batchEnd - batchStart);
+                while (batchStart < batchEnd && !batch[batchStart].hasRemaining()) {
+                    batch[batchStart++] = null;
+                }
+                if (batchStart < batchEnd) {
+                    selectionKey.interestOps(readInterest() | SelectionKey.OP_WRITE);
+                    return;
+                }
+            }
+            if (!writeFiles()) {
+                selectionKey.interestOps(readInterest() | SelectionKey.OP_WRITE);
+                return;
+            }
+            selectionKey.interestOps(readInterest());
+        } catch (IOException e) {
+            listener.onException(this, e);
+            close();
+        }
+    }
+
+    /**
+     * @return false if the socket buffer is full
+     */
+    private boolean writeFiles() throws IOException {
+        for (int chunks = 0; !files.isEmpty() && outboundQueue.isEmpty(); chunks++) {
+            if (chunks == MAX_FLUSH_CHUNKS) {
+                scheduleFlush();
+                return true;
+            }
+            if (!writeChunk(files.peek())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Moves the transfer to the back of the queue once its chunk is written, so transfers take turns.
+     *
+     * @return false if the socket buffer is full
+     */
+    private boolean writeChunk(FileTransfer file) throws IOException {
+        if (!file.isDone()) {
+            int bytes = file.writeChunk(channel);
+            if (bytes == 0) {
+                return false;
+            }
+            getMetrics().recordOut(1, bytes);
+        }
+        files.poll();
+        if (file.isDone()) {
+            file.close();
+        } else {
+            files.add(file);
+        }
+        return true;
+    }
+
+    /**
+     * Tops up the partially written batch with queued frames for one gathering write.
+     *
+     * @return false if there is nothing to write
+     */
+    private boolean fillBatch() {
+        long bytes = 0;
+        for (int i = batchStart; i < batchEnd; i++) {
+            bytes += batch[i].remaining();
+        }
+        if (batchStart > 0) {
+            System.arraycopy(batch, batchStart, batch, 0, batchEnd - batchStart);
+            Arrays.fill(batch, batchEnd - batchStart, batchEnd, null);
+            batchEnd -= batchStart;
+            batchStart = 0;
+        }
+        int frames = 0;
+        long frameBytes = 0;
+        Frame frame;
+        while (batchEnd < batch.length && bytes < getMaxBatchBytes() && (frame = outboundQueue.poll()) != null) {
+            batch[batchEnd++] = frame.asByteBuffer();
+            bytes += frame.length();
+            frameBytes += frame.length();
+            frames++;
+        }
+        if (frames > 0) {
+            getFlushStats().record(frames, frameBytes);
+            getMetrics().recordOut(frames, frameBytes);
+            lastBatchFrames = frames;
+        }
+        return batchEnd > 0;
+    }
+}
@@ -0,0 +1,123 @@
+package org.example;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+public class OutboundQueue<T> {
+    private final BlockingQueue<Entry<T>> entries;
+    private final SlowConsumerPolicy policy;
+    private final long maxBacklogNanos;
+    private final LongAdder queued;
+    private final LongAdder dropped;
+    private final ConnectionMetrics metrics;
+
+    public OutboundQueue(ConnectionConfig config) {
+        this.entries = new ArrayBlockingQueue<>(config.getOutboundQueueCapacity());
+        this.policy = config.getSlowConsumerPolicy();
+        this.maxBacklogNanos = TimeUnit.MILLISECONDS.toNanos(config.getMaxBacklogMillis());
+        this.queued = new LongAdder();
+        this.dropped = new LongAdder();
+        this.metrics = config.getMetrics();
+    }
+
+    /**
+     * @return false if the consumer is too slow and has to be disconnected according to the policy
+     */
+    public boolean offer(T item) {
+        Entry<T> entry = new Entry<>(item, System.nanoTime());
+        if (policy == SlowConsumerPolicy.DISCONNECT && isBacklogExpired(entry.enqueuedNanos)) {
+            drop();
+            return false;
+        }
+        while (!entries.offer(entry)) {
+            switch (policy) {
+                case DROP_NEWEST:
+                    drop();
+                    return true;
+                case DROP_OLDEST:
+                    if (entries.poll() != null) {
+                        drop();
+                    }
+                    break;
+                default:
+                    drop();
+                    return false;
+            }
+        }
+        queued.increment();
+        return true;
+    }
+
+    private void drop() {
+        dropped.increment();
+        metrics.recordDropped();
+    }
+
+    /**
+     * Queues the item past the policy and the counters, only if nothing is queued, to wake up a consumer
+     * blocked in {@link #take()}.
+     */
+    public void wakeUp(T item) {
+        if (entries.isEmpty()) {
+            entries.offer(new Entry<>(item, System.nanoTime()));
+        }
+    }
+
+    public T take() throws InterruptedException {
+        return entries.take().item;
+    }
+
+    public T poll(long timeout, TimeUnit unit) throws InterruptedException {
+        Entry<T> entry = entries.poll(timeout, unit);
+        return entry == null ? null : entry.item;
+    }
+
+    public T poll() {
+        Entry<T> entry = entries.poll();
+        return entry == null ? null : entry.item;
+    }
+
+    public boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public long getQueued() {
+        return queued.sum();
+    }
+
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    public void clear() {
+        entries.clear();
+    }
+
+    /**
+     * @return true under the DISCONNECT policy once the oldest queued item has waited past maxBacklog
+     */
+    public boolean isBacklogExpired() {
+        return policy == SlowConsumerPolicy.DISCONNECT && isBacklogExpired(System.nanoTime());
+    }
+
+    private boolean isBacklogExpired(long now) {
+        Entry<T> oldest = entries.peek();
+        return oldest != null && now - oldest.enqueuedNanos > maxBacklogNanos;
+    }
+
+    private static class Entry<T> {
+        private final T item;
+        private final long enqueuedNanos;
+
+        private Entry(T item, long enqueuedNanos) {
+            this.item = item;
+            this.enqueuedNanos = enqueuedNanos;
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package org.example;
+
+/**
+ * What a connection does with messages beyond its rate limits.
+ */
+public enum RateLimitPolicy {
+    /**
+     * Delivers the message and stops reading until the sender is within its limits again,
+     * so the backlog stays in the socket buffers and TCP slows the sender down.
+     */
+    DELAY,
+    DROP,
+    /**
+     * Drops like DROP and tells the listener when a connection starts being throttled.
+     */
+    WARN,
+    DISCONNECT
+}
@@ -0,0 +1,74 @@
+package org.example;
+
+/**
+ * Per-connection message and byte limits, each 0 for unlimited. Like {@link TokenBucket} it is only
+ * used by the thread reading the connection.
+ */
+final class RateLimiter {
+    static final long DROP = -1;
+
+    private final TokenBucket messages;
+    private final TokenBucket bytes;
+    private final TokenBucket chunkBytes;
+    private final RateLimitPolicy policy;
+
+    private RateLimiter(ConnectionConfig config) {
+        this.messages = config.getMaxMessagesPerSecond() > 0
+                ? new TokenBucket(config.getMaxMessagesPerSecond(), Math.max(1, config.getMessageBurst()))
+                : null;
+        this.bytes = config.getMaxBytesPerSecond() > 0
+                ? new TokenBucket(config.getMaxBytesPerSecond(), Math.max(1, config.getByteBurst()))
+                : null;
+        this.chunkBytes = config.getMaxBytesPerSecond() > 0
+                ? new TokenBucket(config.getMaxBytesPerSecond(), Math.max(1, config.getByteBurst()))
+                : null;
+        this.policy = config.getRateLimitPolicy();
+    }
+
+    /**
+     * @return null if the config sets no limits
+     */
+    static RateLimiter of(ConnectionConfig config) {
+        if (config.getMaxMessagesPerSecond() <= 0 && config.getMaxBytesPerSecond() <= 0) {
+            return null;
+        }
+        return new RateLimiter(config);
+    }
+
+    RateLimitPolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * @return {@link #DROP} if the frame is over the limits and the policy is not DELAY, otherwise the nanos
+     * to pause reading after it
+     */
+    long acquire(int frameBytes) {
+        long now = System.nanoTime();
+        if (policy == RateLimitPolicy.DELAY) {
+            long messageWait = messages == null ? 0 : messages.reserve(1, now);
+            long byteWait = bytes == null ? 0 : bytes.reserve(frameBytes, now);
+            return Math.max(messageWait, byteWait);
+        }
+        if ((messages != null && !messages.available(1, now)) || (bytes != null && !bytes.available(frameBytes, now))) {
+            return DROP;
+        }
+        if (messages != null) {
+            messages.take(1);
+        }
+        if (bytes != null) {
+            bytes.take(frameBytes);
+        }
+        return 0;
+    }
+
+    /**
+     * File chunks are paced whatever the policy, since a dropped chunk would only be sent again, and
+     * by a byte bucket of their own, so a transfer leaves the message limits to chat.
+     *
+     * @return the nanos to pause reading after the chunk
+     */
+    long acquireChunk(int frameBytes) {
+        return chunkBytes == null ? 0 : chunkBytes.reserve(frameBytes, System.nanoTime());
+    }
+}
@@ -0,0 +1,7 @@
+package org.example;
+
+public enum SlowConsumerPolicy {
+    DROP_OLDEST,
+    DROP_NEWEST,
+    DISCONNECT
+}
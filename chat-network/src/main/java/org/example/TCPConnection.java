@@ -1,26 +1,34 @@
 package org.example;
 
-import com.google.gson.Gson;
-import com.google.gson.JsonSyntaxException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.*;
 import java.net.Socket;
-import java.nio.charset.StandardCharsets;
+import java.nio.channels.FileChannel;
 import java.time.LocalTime;
 import java.time.format.DateTimeFormatter;
-import java.util.Optional;
-
-public class TCPConnection {
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What both transports share: naming, codec, rate limits, heartbeats and metrics. How frames are read
+ * and written is up to {@link BlockingTCPConnection}, with a thread pair per connection, and
+ * {@link NioTCPConnection}, on an event loop.
+ */
+public abstract class TCPConnection {
     private final static Logger logger = LoggerFactory.getLogger(TCPConnection.class);
+    static final long THROTTLE_DROP = -1;
+    static final long THROTTLE_DISCONNECT = -2;
 
-    private final TCPConnectionListener listener;
+    protected final TCPConnectionListener listener;
     private final Socket socket;
-    private final Thread receiver;
-    private final BufferedWriter writer;
-    private final BufferedReader reader;
-    private final Gson gson;
+    private final FlushStats flushStats = new FlushStats();
+    private final ConnectionMetrics metrics;
+    private final RateLimiter rateLimiter;
+    private boolean throttled;
+    private final long maxFlushDelayNanos;
+    private final int maxBatchBytes;
+    private volatile MessageCodec codec = MessageCodecs.JSON;
+    private volatile long lastReadNanos = System.nanoTime();
     private String name;
 
     public String getName() {
@@ -34,89 +42,193 @@ public class TCPConnection {
         this.name = name;
     }
 
-    public TCPConnection(TCPConnectionListener listener, String ipAddress, int port) throws IOException {
-        this(listener, new Socket(ipAddress, port));
-        logger.info("Constructor TCPConnection-Client");
+    public MessageCodec getCodec() {
+        return codec;
+    }
+
+    /**
+     * Switches the codec of outgoing frames; incoming frames are recognized by their first byte.
+     */
+    public void setCodec(MessageCodec codec) {
+        logger.info("Connection {} switched to codec {}", this, codec.getName());
+        this.codec = codec;
     }
 
-    public TCPConnection(TCPConnectionListener listener, Socket socket) throws IOException {
-        logger.info("Constructor TCPConnection");
+    protected TCPConnection(TCPConnectionListener listener, Socket socket, ConnectionConfig config) {
         this.listener = listener;
         this.socket = socket;
-        this.reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
-        this.writer = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
-        this.gson = new Gson();
-
-        this.receiver = new Thread(new Runnable() {
-            @Override
-            public void run() {
-                try {
-                    listener.onConnectionReady(TCPConnection.this);
-                    while (!receiver.isInterrupted()) {
-                        readMessage().ifPresent(message -> listener.onReceiveMessage(TCPConnection.this, message));
-                    }
-                } catch (IOException e) {
-                    listener.onException(TCPConnection.this, e);
-                } finally {
-                    listener.onDisconnect(TCPConnection.this);
-                }
-            }
-        });
-        receiver.start();
+        this.maxFlushDelayNanos = TimeUnit.MICROSECONDS.toNanos(config.getMaxFlushDelayMicros());
+        this.maxBatchBytes = config.getMaxBatchBytes();
+        this.metrics = config.getMetrics();
+        this.rateLimiter = RateLimiter.of(config);
+        connectionOpened();
     }
 
-    public synchronized Optional<Message> readMessage() throws IOException {
-        Message message = getMessage();
-        return Optional.ofNullable(message);
+    public void sendMessage(Message message) {
+        sendFrame(codec.encode(message));
     }
 
-    private Message getMessage() throws IOException {
-        String line = null;
-        Message message = null;
-        try {
-            line = reader.readLine();
-            message = convertJsonToMessage(line);
-        } catch (JsonSyntaxException e) {
-            logger.error("Reading message error: cannot parse to object line {}", line);
-        }
-        return message;
+    /**
+     * Asks the peer for a PONG; any traffic from the peer, not only the PONG, shows in {@link #getLastReadNanos()}.
+     */
+    public void ping() {
+        sendMessage(heartbeat(Command.PING));
+    }
+
+    /**
+     * @return System.nanoTime() of the last bytes received
+     */
+    public long getLastReadNanos() {
+        return lastReadNanos;
     }
 
-    public synchronized void sendMessage(Message message) {
-        logger.info("Method sendMessage by connection {} ({})", name, message);
+    /**
+     * Queues the frame; a connection whose outbound backlog overflows under the DISCONNECT policy is disconnected.
+     */
+    public abstract void sendFrame(Frame frame);
+
+    /**
+     * Streams length bytes of the file from offset as chunks of the transfer id, interleaved with the
+     * messages of the connection. A transfer of the same id still being sent is cancelled, so a transfer
+     * can be restarted from another offset. The file is closed once sent or when the connection closes.
+     */
+    public abstract void sendFile(long id, FileChannel file, long offset, long length);
+
+    public abstract void disconnect();
 
-        try {
-            String line = convertMessageToJson(message);
-            logger.info("Message converted to json: {}", line);
-            writer.write(line + System.lineSeparator());
-            logger.info("Writer wrote");
-            writer.flush();
-            logger.info("Writer flush");
-        } catch (IOException e) {
-            listener.onException(TCPConnection.this, e);
+    public abstract int getOutboundBacklog();
+
+    public abstract long getQueuedMessages();
+
+    public abstract long getDroppedMessages();
+
+    protected abstract boolean isBacklogExpired();
+
+    /**
+     * Disconnects the connection if its backlog waited past maxBacklog under the DISCONNECT policy. Offers
+     * check it as well, but a peer that stopped reading may not be offered anything for a long time.
+     */
+    public void checkBacklog() {
+        if (isBacklogExpired()) {
+            logger.warn("Connection {} is too slow, outbound backlog {} expired. Disconnecting", this,
+                    getOutboundBacklog());
             disconnect();
         }
     }
 
-    private String convertMessageToJson(Message message) {
-        return gson.toJson(message);
+    protected long getMaxFlushDelayNanos() {
+        return maxFlushDelayNanos;
+    }
+
+    protected int getMaxBatchBytes() {
+        return maxBatchBytes;
     }
 
-    private Message convertJsonToMessage(String line) {
-        return gson.fromJson(line, Message.class);
+    private void connectionOpened() {
+        metrics.recordOpened();
+        ConnectionOpenedEvent event = new ConnectionOpenedEvent();
+        if (event.shouldCommit()) {
+            event.connection = toString();
+            event.transport = getClass().getSimpleName();
+            event.commit();
+        }
     }
 
+    final void bytesRead(int read) {
+        lastReadNanos = System.nanoTime();
+        metrics.recordBytesIn(read);
+    }
 
-    public synchronized void disconnect() {
-        logger.info("Method disconnect {}", this);
-        try {
-            receiver.interrupt();
-            logger.info("Receiver {} is interrupted: {}", receiver.getName(), receiver.isInterrupted());
-            socket.close();
-        } catch (IOException e) {
-            logger.error("Error in server disconnect method.", e);
-            listener.onException(TCPConnection.this, e);
+    /**
+     * Applies the rate limits to the next frame, before it is decoded.
+     *
+     * @return {@link #THROTTLE_DROP} or {@link #THROTTLE_DISCONNECT} if the frame must be skipped, otherwise
+     * the nanos to pause reading for once the frame is delivered
+     */
+    final long throttle(int frameBytes, boolean chunk) {
+        if (rateLimiter == null) {
+            return 0;
+        }
+        if (chunk) {
+            long pause = rateLimiter.acquireChunk(frameBytes);
+            if (pause > 0) {
+                metrics.recordThrottled(frameBytes, pause);
+            }
+            return pause;
         }
+        long pause = rateLimiter.acquire(frameBytes);
+        if (pause == 0) {
+            throttled = false;
+            return 0;
+        }
+        metrics.recordThrottled(frameBytes, Math.max(0, pause));
+        if (pause > 0) {
+            return pause;
+        }
+        boolean started = !throttled;
+        throttled = true;
+        switch (rateLimiter.getPolicy()) {
+            case DISCONNECT:
+                logger.warn("Connection {} exceeded its rate limits. Disconnecting", this);
+                return THROTTLE_DISCONNECT;
+            case WARN:
+                if (started) {
+                    listener.onThrottled(this);
+                }
+                return THROTTLE_DROP;
+            default:
+                return THROTTLE_DROP;
+        }
+    }
+
+    /**
+     * Answers a PING with a PONG.
+     *
+     * @return true if the message was a heartbeat and must not reach the listener
+     */
+    final boolean onHeartbeat(Message message) {
+        String command = message.getCommand();
+        if (Command.PING.getWireName().equals(command)) {
+            sendMessage(heartbeat(Command.PONG));
+            return true;
+        }
+        return Command.PONG.getWireName().equals(command);
+    }
+
+    private Message heartbeat(Command command) {
+        return Message.builder()
+                .command(command.getWireName())
+                .time(getTime())
+                .build();
+    }
+
+    final void connectionClosed() {
+        metrics.recordClosed();
+        ConnectionClosedEvent event = new ConnectionClosedEvent();
+        if (event.shouldCommit()) {
+            event.connection = toString();
+            event.transport = getClass().getSimpleName();
+            event.commit();
+        }
+    }
+
+    /**
+     * The event covers decoding; the connection is only formatted if the event is recorded.
+     */
+    final void messageReceived(MessageReceivedEvent event) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.connection = toString();
+            event.commit();
+        }
+    }
+
+    protected ConnectionMetrics getMetrics() {
+        return metrics;
+    }
+
+    public FlushStats getFlushStats() {
+        return flushStats;
     }
 
     public String getTime() {
@@ -10,4 +10,18 @@ public interface TCPConnectionListener {
 
     void onException(TCPConnection tcpConnection, Exception e);
 
+    /**
+     * Called under {@link RateLimitPolicy#WARN} when the connection starts dropping messages over its
+     * rate limits, not for every dropped message.
+     */
+    default void onThrottled(TCPConnection tcpConnection) {
+    }
+
+    /**
+     * A chunk of a file the peer sends with {@link TCPConnection#sendFile}, in order within the transfer.
+     * Its data is only valid until the method returns.
+     */
+    default void onChunk(TCPConnection tcpConnection, Chunk chunk) {
+    }
+
 }
@@ -0,0 +1,46 @@
+package org.example;
+
+/**
+ * Not thread-safe: a bucket belongs to the single thread reading its connection.
+ */
+final class TokenBucket {
+    private final double capacity;
+    private final double nanosPerToken;
+    private double tokens;
+    private long lastRefillNanos;
+
+    TokenBucket(double tokensPerSecond, double capacity) {
+        this.capacity = capacity;
+        this.nanosPerToken = 1_000_000_000d / tokensPerSecond;
+        this.tokens = capacity;
+        this.lastRefillNanos = System.nanoTime();
+    }
+
+    /**
+     * Amounts larger than the capacity pass once the bucket is full.
+     */
+    boolean available(long amount, long nowNanos) {
+        refill(nowNanos);
+        return tokens >= Math.min(amount, capacity);
+    }
+
+    void take(long amount) {
+        tokens -= amount;
+    }
+
+    /**
+     * Takes the tokens even if the bucket goes into debt.
+     *
+     * @return nanos until the debt is paid off, 0 if there was none
+     */
+    long reserve(long amount, long nowNanos) {
+        refill(nowNanos);
+        tokens -= amount;
+        return tokens >= 0 ? 0 : (long) (-tokens * nanosPerToken);
+    }
+
+    private void refill(long nowNanos) {
+        tokens = Math.min(capacity, tokens + (nowNanos - lastRefillNanos) / nanosPerToken);
+        lastRefillNanos = nowNanos;
+    }
+}
@@ -0,0 +1,72 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * The expected lines are what Gson 2.8 wrote for the same messages with new Gson().toJson(message), so
+ * peers still on the Gson codec read and write the same bytes.
+ */
+class JsonMessageCodecTest {
+    private final JsonMessageCodec codec = new JsonMessageCodec();
+
+    @Test
+    void writesPlainFieldsInDeclarationOrder() throws IOException {
+        assertGsonBytes("{\"name\":\"alice\",\"text\":\"hello\",\"time\":\"10:15:30.123\"}",
+                Message.builder().name("alice").text("hello").time("10:15:30.123").build());
+    }
+
+    @Test
+    void keepsGsonHtmlEscapes() throws IOException {
+        assertGsonBytes("{\"name\":\"bob\","
+                        + "\"text\":\"\\u003cb\\u003ea \\u0026 b \\u003d \\u0027c\\u0027\\u003c/b\\u003e\","
+                        + "\"room\":\"general\",\"seq\":42}",
+                Message.builder().name("bob").text("<b>a & b = 'c'</b>").room("general").seq(42L).build());
+    }
+
+    @Test
+    void escapesQuotesAndControlCharacters() throws IOException {
+        assertGsonBytes("{\"name\":\"carol\",\"text\":\"say \\\"hi\\\"\\\\ \\t\\n\\r\\b\\f\\u0001\\u001f end\","
+                        + "\"command\":\"dm\",\"recipient\":\"dave\"}",
+                Message.builder().name("carol").text("say \"hi\"\\ \t\n\r\b\f\u0001\u001f end")
+                        .command("dm").recipient("dave").build());
+    }
+
+    @Test
+    void writesNonAsciiRawExceptLineSeparators() throws IOException {
+        assertGsonBytes("{\"name\":\"\u041c\u0430\u0448\u0430\","
+                        + "\"text\":\"caf\u00e9 \\u2028 \\u2029 \u20ac \ud83d\ude00!\","
+                        + "\"codec\":\"json\",\"token\":\"a-b_c\"}",
+                Message.builder().name("\u041c\u0430\u0448\u0430").text("caf\u00e9 \u2028 \u2029 \u20ac \ud83d\ude00!")
+                        .codec("json").token("a-b_c").build());
+    }
+
+    @Test
+    void omitsNullFields() throws IOException {
+        assertGsonBytes("{}", new Message());
+    }
+
+    @Test
+    void readsBackWhatItWrites() throws IOException {
+        Message message = Message.builder().name("\u041c\u0430\u0448\u0430").text("<\ud83d\ude00>\n\u2028")
+                .room("general").seq(7L).token("t").build();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        codec.encode(message).writeTo(out);
+        assertEquals(message, codec.decode(ByteBuffer.wrap(out.toByteArray())));
+    }
+
+    private void assertGsonBytes(String gsonLine, Message message) throws IOException {
+        byte[] expected = (gsonLine + System.lineSeparator()).getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        codec.encode(message).writeTo(out);
+        assertArrayEquals(expected, out.toByteArray(), () -> "expected " + gsonLine + " but was "
+                + out.toString(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,21 @@
+package org.example;
+
+import lombok.Builder;
+import lombok.Getter;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+@Getter
+@Builder(toBuilder = true)
+public class AttachmentConfig {
+    @Builder.Default
+    private final Path directory = Paths.get("chat-attachments");
+    @Builder.Default
+    private final long maxBytes = 64 * 1024 * 1024;
+    /**
+     * How long an attachment, uploaded or not, is kept from the start of its upload.
+     */
+    @Builder.Default
+    private final long retentionMillis = 24 * 60 * 60 * 1000L;
+}
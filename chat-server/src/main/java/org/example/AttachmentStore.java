@@ -0,0 +1,190 @@
+package org.example;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Attachments spooled to disk chunk by chunk as they are uploaded, one file per attachment named after
+ * its id, and streamed back from there, so no attachment is ever held in memory whole. Only the index is
+ * in memory, so spool files left by an earlier run are unreachable; those past the retention time are
+ * deleted on start. Younger ones are left alone, as another server may share the directory.
+ */
+public class AttachmentStore {
+    private static final Logger logger = LoggerFactory.getLogger(AttachmentStore.class);
+    private static final String SUFFIX = ".attachment";
+
+    private final AttachmentConfig config;
+    private final HashedWheelTimer timer;
+    private final Map<Long, Attachment> attachments;
+
+    public AttachmentStore(AttachmentConfig config, HashedWheelTimer timer) {
+        this.config = config;
+        this.timer = timer;
+        this.attachments = new ConcurrentHashMap<>();
+        try {
+            deleteExpiredSpoolFiles();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot clean attachments in " + config.getDirectory(), e);
+        }
+    }
+
+    private void deleteExpiredSpoolFiles() throws IOException {
+        if (!Files.isDirectory(config.getDirectory())) {
+            return;
+        }
+        long expiredBefore = System.currentTimeMillis() - config.getRetentionMillis();
+        try (Stream<Path> files = Files.list(config.getDirectory())) {
+            for (Path path : (Iterable<Path>) files.filter(path -> path.toString().endsWith(SUFFIX))::iterator) {
+                if (Files.getLastModifiedTime(path).toMillis() < expiredBefore) {
+                    Files.deleteIfExists(path);
+                }
+            }
+        }
+    }
+
+    public long getMaxBytes() {
+        return config.getMaxBytes();
+    }
+
+    public Optional<Attachment> find(long id) {
+        return Optional.ofNullable(attachments.get(id));
+    }
+
+    /**
+     * @return null if the id is taken
+     */
+    public Attachment create(long id, String uploader, String room, String fileName, long size) throws IOException {
+        Files.createDirectories(config.getDirectory());
+        Path path = config.getDirectory().resolve(id + SUFFIX);
+        Attachment attachment = new Attachment(id, uploader, room, fileName, size, path);
+        if (attachments.putIfAbsent(id, attachment) != null) {
+            return null;
+        }
+        try {
+            attachment.out = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        } catch (IOException e) {
+            attachments.remove(id);
+            throw e;
+        }
+        attachment.finishIfComplete();
+        timer.schedule(() -> delete(attachment), config.getRetentionMillis(), TimeUnit.MILLISECONDS);
+        return attachment;
+    }
+
+    /**
+     * A new channel per download, so downloads of one attachment do not share a position.
+     */
+    public FileChannel open(Attachment attachment) throws IOException {
+        return FileChannel.open(attachment.path, StandardOpenOption.READ);
+    }
+
+    /**
+     * Downloads in progress keep reading the file: it is only unlinked.
+     */
+    public void delete(Attachment attachment) {
+        if (!attachments.remove(attachment.id, attachment)) {
+            return;
+        }
+        attachment.closeOut();
+        try {
+            Files.deleteIfExists(attachment.path);
+            logger.info("Attachment {} ({}) deleted", attachment.id, attachment.fileName);
+        } catch (IOException e) {
+            logger.error("Cannot delete attachment {}", attachment.path, e);
+        }
+    }
+
+    public static class Attachment {
+        private final long id;
+        private final String uploader;
+        private final String room;
+        private final String fileName;
+        private final long size;
+        private final Path path;
+        private FileChannel out;
+        private long received;
+
+        private Attachment(long id, String uploader, String room, String fileName, long size, Path path) {
+            this.id = id;
+            this.uploader = uploader;
+            this.room = room;
+            this.fileName = fileName;
+            this.size = size;
+            this.path = path;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public String getUploader() {
+            return uploader;
+        }
+
+        public String getRoom() {
+            return room;
+        }
+
+        public String getFileName() {
+            return fileName;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public synchronized long getReceived() {
+            return received;
+        }
+
+        public synchronized boolean isComplete() {
+            return received == size && out == null;
+        }
+
+        /**
+         * @return false if the data does not continue the upload where it stands; the upload is left as it is
+         */
+        public synchronized boolean append(long offset, ByteBuffer data) throws IOException {
+            if (out == null || offset != received || data.remaining() > size - received) {
+                return false;
+            }
+            while (data.hasRemaining()) {
+                received += out.write(data, received);
+            }
+            finishIfComplete();
+            return true;
+        }
+
+        private synchronized void finishIfComplete() throws IOException {
+            if (received == size && out != null) {
+                out.close();
+                out = null;
+            }
+        }
+
+        private synchronized void closeOut() {
+            if (out == null) {
+                return;
+            }
+            try {
+                out.close();
+            } catch (IOException e) {
+                logger.error("Cannot close attachment {}", path, e);
+            }
+            out = null;
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package org.example;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Message audit trail written by a background thread to the "org.example.audit" logger, so the
+ * message path never formats or writes log lines itself. A sample of all messages is recorded, and
+ * everything to and from traced users; when the bounded queue is full, entries are dropped and counted.
+ * A recorded message is formatted when it is queued, as the server goes on changing it afterwards.
+ */
+public class AuditLog implements AuditLogMBean {
+    private static final Logger logger = LoggerFactory.getLogger(AuditLog.class);
+    private static final Logger audit = LoggerFactory.getLogger("org.example.audit");
+    private static final long POLL_MILLIS = 100;
+
+    private enum Kind {
+        RECEIVED,
+        BROADCAST,
+        SENT
+    }
+
+    private final BlockingQueue<Entry> queue;
+    private final Set<String> tracedUsers;
+    private final LongAdder recorded;
+    private final LongAdder dropped;
+    private final Thread writer;
+    private volatile double sampleRate;
+    private volatile boolean running;
+
+    public AuditLog(double sampleRate, int queueCapacity, Set<String> tracedUsers) {
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.tracedUsers = ConcurrentHashMap.newKeySet();
+        this.tracedUsers.addAll(tracedUsers);
+        this.recorded = new LongAdder();
+        this.dropped = new LongAdder();
+        this.sampleRate = sampleRate;
+        this.running = true;
+        this.writer = new Thread(this::write, "audit-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    public void received(String user, Message message) {
+        if (shouldRecord(user)) {
+            offer(new Entry(Kind.RECEIVED, user, 0, message));
+        }
+    }
+
+    public void sent(String user, Message message) {
+        if (shouldRecord(user)) {
+            offer(new Entry(Kind.SENT, user, 0, message));
+        }
+    }
+
+    /**
+     * Traced by its sender; messages of the server bot are only sampled.
+     */
+    public void broadcast(Message message, int recipients) {
+        if (shouldRecord(message.getName())) {
+            offer(new Entry(Kind.BROADCAST, message.getName(), recipients, message));
+        }
+    }
+
+    private boolean shouldRecord(String user) {
+        if (!audit.isInfoEnabled()) {
+            return false;
+        }
+        if (!tracedUsers.isEmpty() && user != null && tracedUsers.contains(user)) {
+            return true;
+        }
+        double rate = sampleRate;
+        return rate > 0 && (rate >= 1 || ThreadLocalRandom.current().nextDouble() < rate);
+    }
+
+    private void offer(Entry entry) {
+        if (!running || !queue.offer(entry)) {
+            dropped.increment();
+        }
+    }
+
+    private void write() {
+        try {
+            while (running || !queue.isEmpty()) {
+                Entry entry = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (entry == null) {
+                    continue;
+                }
+                if (entry.kind == Kind.BROADCAST) {
+                    audit.info("{} from={} room={} recipients={} {}", entry.kind, entry.user,
+                            entry.room, entry.recipients, entry.message);
+                } else {
+                    audit.info("{} user={} room={} {}", entry.kind, entry.user, entry.room, entry.message);
+                }
+                recorded.increment();
+            }
+        } catch (InterruptedException e) {
+            logger.info("Audit writer stopped");
+        }
+    }
+
+    /**
+     * Writes out what is queued and stops the writer.
+     */
+    public void stop() {
+        running = false;
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public double getSampleRate() {
+        return sampleRate;
+    }
+
+    @Override
+    public void setSampleRate(double sampleRate) {
+        logger.info("Audit sample rate set to {}", sampleRate);
+        this.sampleRate = sampleRate;
+    }
+
+    @Override
+    public Set<String> getTracedUsers() {
+        return Collections.unmodifiableSet(new TreeSet<>(tracedUsers));
+    }
+
+    @Override
+    public void traceUser(String name) {
+        logger.info("Tracing all messages of user {}", name);
+        tracedUsers.add(name);
+    }
+
+    @Override
+    public void untraceUser(String name) {
+        logger.info("Stopped tracing user {}", name);
+        tracedUsers.remove(name);
+    }
+
+    @Override
+    public long getRecorded() {
+        return recorded.sum();
+    }
+
+    @Override
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    @Override
+    public int getBacklog() {
+        return queue.size();
+    }
+
+    private static class Entry {
+        private final Kind kind;
+        private final String user;
+        private final int recipients;
+        private final String room;
+        private final String message;
+
+        private Entry(Kind kind, String user, int recipients, Message message) {
+            this.kind = kind;
+            this.user = user;
+            this.recipients = recipients;
+            this.room = message.getRoom();
+            this.message = message.toString();
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package org.example;
+
+import java.util.Set;
+
+public interface AuditLogMBean {
+    double getSampleRate();
+
+    void setSampleRate(double sampleRate);
+
+    Set<String> getTracedUsers();
+
+    void traceUser(String name);
+
+    void untraceUser(String name);
+
+    long getRecorded();
+
+    long getDropped();
+
+    int getBacklog();
+}
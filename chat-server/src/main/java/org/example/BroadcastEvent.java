@@ -0,0 +1,26 @@
+package org.example;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("org.example.Broadcast")
+@Label("Broadcast")
+@Category({"Chat", "Server"})
+@Description("Fan-out of one message to the members of a room, from start to the last frame queued")
+@StackTrace(false)
+class BroadcastEvent extends Event {
+    @Label("Room")
+    String room;
+
+    @Label("Fan-out")
+    @Description("Connections the message was queued to")
+    int recipients;
+
+    @Label("Encodings")
+    @Description("Codecs the message was encoded with")
+    int encodings;
+}
@@ -0,0 +1,461 @@
+package org.example;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Links to the other nodes of a cluster, one binary-codec {@link TCPConnection} per pair of nodes, so
+ * forwarded messages are batched by the link's sender like any other outbound frames.
+ * <p>
+ * A user name is claimed from its home node, picked by rendezvous hashing over the nodes that are up,
+ * which grants it only if no node is known to hold it. Every node keeps the presence of the others, so
+ * a name claimed twice while nodes could not see each other is detected when they meet again, and the
+ * node with the smaller id keeps it.
+ */
+public class Cluster implements TCPConnectionListener {
+    private static final Logger logger = LoggerFactory.getLogger(Cluster.class);
+    private static final int ACCEPT_BACKLOG = 64;
+    private static final int CONNECT_TIMEOUT_MILLIS = 2000;
+    private static final int ROSTER_CHUNK_NAMES = 1000;
+
+    private final String nodeId;
+    private final Map<String, InetSocketAddress> nodes;
+    private final ConnectionConfig linkConfig;
+    private final long reconnectMillis;
+    private final long claimTimeoutMillis;
+    private final ClusterListener listener;
+    private final HashedWheelTimer timer;
+    private final Map<String, TCPConnection> links;
+    /**
+     * Users of the other nodes by name, and the node holding each.
+     */
+    private final Map<String, String> owners;
+    /**
+     * Names this node granted as their home, to the node that claimed them, until it announces the user.
+     */
+    private final Map<String, String> grants;
+    private final Map<String, Claim> claims;
+    private final ScheduledExecutorService dialer;
+    private final LongAdder forwarded;
+    private final LongAdder received;
+    private volatile boolean stopped;
+    private ServerSocket serverSocket;
+
+    public Cluster(ClusterConfig config, ClusterListener listener, HashedWheelTimer timer) {
+        if (!config.getNodes().containsKey(config.getNodeId())) {
+            throw new IllegalArgumentException("Node " + config.getNodeId() + " is not one of the cluster nodes "
+                    + config.getNodes().keySet());
+        }
+        this.nodeId = config.getNodeId();
+        this.nodes = config.getNodes();
+        this.linkConfig = config.getLinkConfig();
+        this.reconnectMillis = config.getReconnectMillis();
+        this.claimTimeoutMillis = config.getClaimTimeoutMillis();
+        this.listener = listener;
+        this.timer = timer;
+        this.links = new ConcurrentHashMap<>();
+        this.owners = new ConcurrentHashMap<>();
+        this.grants = new ConcurrentHashMap<>();
+        this.claims = new ConcurrentHashMap<>();
+        this.dialer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "cluster-dialer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.forwarded = new LongAdder();
+        this.received = new LongAdder();
+    }
+
+    public void start() {
+        InetSocketAddress address = nodes.get(nodeId);
+        try {
+            serverSocket = new ServerSocket();
+            serverSocket.bind(address, ACCEPT_BACKLOG);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot listen for cluster links on " + address, e);
+        }
+        Thread acceptor = new Thread(this::accept, "cluster-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        dialer.scheduleWithFixedDelay(this::dialMissing, 0, reconnectMillis, TimeUnit.MILLISECONDS);
+        logger.info("Node {} listening for cluster links on {}, {} nodes configured", nodeId, address, nodes.size());
+    }
+
+    public void stop() {
+        stopped = true;
+        dialer.shutdownNow();
+        try {
+            if (serverSocket != null) {
+                serverSocket.close();
+            }
+        } catch (IOException e) {
+            logger.warn("Cannot close cluster socket", e);
+        }
+        links.values().forEach(TCPConnection::disconnect);
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * Asks the name's home node for it. The callback runs once, on a link thread, the timer thread or
+     * the calling thread, with false if the name is held elsewhere or the home node did not answer.
+     */
+    public void claim(String name, Consumer<Boolean> callback) {
+        String home = homeOf(name);
+        if (home.equals(nodeId)) {
+            callback.accept(grant(name, nodeId));
+            return;
+        }
+        TCPConnection link = links.get(home);
+        Claim claim = new Claim(home, callback);
+        if (link == null || claims.putIfAbsent(name, claim) != null) {
+            callback.accept(false);
+            return;
+        }
+        claim.timeout = timer.schedule(() -> {
+            logger.warn("Node {} did not answer the claim of {}", home, name);
+            complete(name, claim, false);
+        }, claimTimeoutMillis, TimeUnit.MILLISECONDS);
+        link.sendMessage(control(ClusterCommand.CLAIM, name));
+    }
+
+    /**
+     * Forwards a chat message published here to every other node; the frame is encoded once.
+     */
+    public void publish(Message message) {
+        if (links.isEmpty()) {
+            return;
+        }
+        Frame frame = MessageCodecs.BINARY.encode(message);
+        for (TCPConnection link : links.values()) {
+            link.sendFrame(frame);
+        }
+        forwarded.increment();
+    }
+
+    /**
+     * @return false if no linked node holds the recipient
+     */
+    public boolean sendDirect(Message message) {
+        String owner = owners.get(message.getRecipient());
+        TCPConnection link = owner == null ? null : links.get(owner);
+        if (link == null) {
+            return false;
+        }
+        link.sendMessage(message);
+        forwarded.increment();
+        return true;
+    }
+
+    public void online(String name) {
+        grants.remove(name, nodeId);
+        broadcast(control(ClusterCommand.ONLINE, name));
+    }
+
+    public void offline(String name) {
+        broadcast(control(ClusterCommand.OFFLINE, name));
+    }
+
+    public void sendRoster(String peer, Collection<String> names) {
+        TCPConnection link = links.get(peer);
+        if (link == null) {
+            return;
+        }
+        List<String> chunk = new ArrayList<>(Math.min(names.size(), ROSTER_CHUNK_NAMES));
+        for (String name : names) {
+            chunk.add(name);
+            if (chunk.size() == ROSTER_CHUNK_NAMES) {
+                link.sendMessage(control(ClusterCommand.ROSTER, String.join("\n", chunk)));
+                chunk.clear();
+            }
+        }
+        if (!chunk.isEmpty()) {
+            link.sendMessage(control(ClusterCommand.ROSTER, String.join("\n", chunk)));
+        }
+    }
+
+    public boolean isRemoteUser(String name) {
+        return owners.containsKey(name);
+    }
+
+    public Collection<String> getRemoteUsers() {
+        return owners.keySet();
+    }
+
+    public int getLinks() {
+        return links.size();
+    }
+
+    public long getForwardedMessages() {
+        return forwarded.sum();
+    }
+
+    public long getReceivedMessages() {
+        return received.sum();
+    }
+
+    /**
+     * Both ends introduce themselves; outgoing frames are binary from the start, incoming ones are
+     * recognized by their first byte.
+     */
+    @Override
+    public void onConnectionReady(TCPConnection tcpConnection) {
+        tcpConnection.setCodec(MessageCodecs.BINARY);
+        tcpConnection.sendMessage(Message.builder()
+                .name(nodeId)
+                .command(ClusterCommand.HELLO.getWireName())
+                .codec(MessageCodecs.BINARY.getName())
+                .build());
+    }
+
+    @Override
+    public void onReceiveMessage(TCPConnection tcpConnection, Message message) {
+        if (ClusterCommand.HELLO.getWireName().equals(message.getCommand())) {
+            onHello(tcpConnection, message.getName());
+            return;
+        }
+        String peer = tcpConnection.getName();
+        if (peer == null || links.get(peer) != tcpConnection) {
+            logger.debug("Dropping message from unlinked connection {}", tcpConnection);
+            return;
+        }
+        if (message.getCommand() == null) {
+            received.increment();
+            if (message.getRecipient() != null) {
+                listener.onRemoteDirectMessage(message);
+            } else {
+                listener.onRemoteMessage(message);
+            }
+            return;
+        }
+        String name = message.getText();
+        switch (ClusterCommand.forName(message.getCommand()).orElse(ClusterCommand.HELLO)) {
+            case CLAIM:
+                boolean granted = grant(name, peer);
+                tcpConnection.sendMessage(control(granted ? ClusterCommand.GRANT : ClusterCommand.REFUSE, name));
+                break;
+            case GRANT:
+            case REFUSE:
+                Claim claim = claims.get(name);
+                if (claim != null && claim.home.equals(peer)) {
+                    complete(name, claim, ClusterCommand.GRANT.getWireName().equals(message.getCommand()));
+                }
+                break;
+            case ROSTER:
+                for (String user : name.split("\n")) {
+                    onRemoteOnline(user, peer);
+                }
+                break;
+            case ONLINE:
+                onRemoteOnline(name, peer);
+                break;
+            case OFFLINE:
+                grants.remove(name, peer);
+                if (owners.remove(name, peer)) {
+                    listener.onRemoteOffline(name);
+                }
+                break;
+            default:
+                logger.debug("Unknown link command {} from node {}", message.getCommand(), peer);
+                break;
+        }
+    }
+
+    @Override
+    public void onDisconnect(TCPConnection tcpConnection) {
+        String peer = tcpConnection.getName();
+        if (peer != null && links.remove(peer, tcpConnection)) {
+            logger.warn("Link to node {} is down", peer);
+            dropNode(peer);
+        }
+    }
+
+    @Override
+    public void onException(TCPConnection tcpConnection, Exception e) {
+        logger.warn("Link {} failed: {}", tcpConnection, e.getMessage());
+    }
+
+    private void accept() {
+        while (!stopped) {
+            try {
+                new BlockingTCPConnection(this, serverSocket.accept(), ConnectionExecutors.platformThreads(), linkConfig);
+            } catch (IOException e) {
+                if (!serverSocket.isClosed()) {
+                    logger.error("Cannot accept cluster link", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Each pair of nodes has one link, dialed by the node with the smaller id.
+     */
+    private void dialMissing() {
+        for (Map.Entry<String, InetSocketAddress> node : nodes.entrySet()) {
+            String peer = node.getKey();
+            if (stopped || peer.compareTo(nodeId) <= 0 || links.containsKey(peer)) {
+                continue;
+            }
+            Socket socket = new Socket();
+            try {
+                socket.connect(node.getValue(), CONNECT_TIMEOUT_MILLIS);
+                new BlockingTCPConnection(this, socket, ConnectionExecutors.platformThreads(), linkConfig);
+            } catch (IOException e) {
+                logger.debug("Cannot link to node {}: {}", peer, e.getMessage());
+                try {
+                    socket.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    /**
+     * A node that comes back before its old link is seen to drop replaces that link, and the users
+     * known from it are dropped until its roster arrives again.
+     */
+    private void onHello(TCPConnection tcpConnection, String peer) {
+        if (peer == null || peer.equals(nodeId) || !nodes.containsKey(peer)) {
+            logger.warn("Connection {} is not from a cluster node: {}. Disconnecting", tcpConnection, peer);
+            tcpConnection.disconnect();
+            return;
+        }
+        tcpConnection.setName(peer);
+        TCPConnection previous = links.put(peer, tcpConnection);
+        if (previous != null && previous != tcpConnection) {
+            previous.disconnect();
+            dropNode(peer);
+        }
+        logger.info("Node {} linked to node {}", nodeId, peer);
+        listener.onLinkUp(peer);
+    }
+
+    private void dropNode(String peer) {
+        for (Map.Entry<String, String> owner : owners.entrySet()) {
+            if (peer.equals(owner.getValue()) && owners.remove(owner.getKey(), peer)) {
+                listener.onRemoteOffline(owner.getKey());
+            }
+        }
+        grants.values().removeIf(peer::equals);
+        for (Map.Entry<String, Claim> claim : claims.entrySet()) {
+            if (claim.getValue().home.equals(peer)) {
+                complete(claim.getKey(), claim.getValue(), false);
+            }
+        }
+    }
+
+    /**
+     * Runs on the name's home node. A granted name stays reserved until the node it was granted to
+     * announces the user, this one included, or the claim timeout passes.
+     */
+    private boolean grant(String name, String requester) {
+        if (owners.containsKey(name) || (!requester.equals(nodeId) && listener.hasLocalUser(name))
+                || grants.putIfAbsent(name, requester) != null) {
+            return false;
+        }
+        timer.schedule(() -> grants.remove(name, requester), claimTimeoutMillis, TimeUnit.MILLISECONDS);
+        return true;
+    }
+
+    private void complete(String name, Claim claim, boolean granted) {
+        if (!claims.remove(name, claim)) {
+            return;
+        }
+        HashedWheelTimer.Timeout timeout = claim.timeout;
+        if (timeout != null) {
+            timeout.cancel();
+        }
+        claim.callback.accept(granted);
+    }
+
+    /**
+     * Of two nodes holding the same name, the one with the smaller id keeps it. The owner is recorded
+     * before the local session ends, so local users never see the name go offline.
+     */
+    private void onRemoteOnline(String name, String peer) {
+        grants.remove(name, peer);
+        boolean local = listener.hasLocalUser(name);
+        if (local && nodeId.compareTo(peer) < 0) {
+            return;
+        }
+        String[] previous = new String[1];
+        owners.merge(name, peer, (current, offered) -> {
+            previous[0] = current;
+            return current.compareTo(offered) <= 0 ? current : offered;
+        });
+        if (local) {
+            logger.warn("Name {} is held on node {} as well, which keeps it", name, peer);
+            listener.onNameConflict(name);
+        } else if (previous[0] == null) {
+            listener.onRemoteOnline(name);
+        }
+    }
+
+    /**
+     * Rendezvous hashing: every node ranks the nodes that are up the same way, and a node going down
+     * only moves the names it was home to.
+     */
+    private String homeOf(String name) {
+        String home = nodeId;
+        long best = score(nodeId, name);
+        for (String node : links.keySet()) {
+            long score = score(node, name);
+            if (score > best || (score == best && node.compareTo(home) < 0)) {
+                home = node;
+                best = score;
+            }
+        }
+        return home;
+    }
+
+    private static long score(String node, String name) {
+        long hash = node.hashCode() * 0x9E3779B97F4A7C15L + name.hashCode();
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        hash *= 0xC4CEB9FE1A85EC53L;
+        return hash ^ (hash >>> 33);
+    }
+
+    private void broadcast(Message message) {
+        for (TCPConnection link : links.values()) {
+            link.sendMessage(message);
+        }
+    }
+
+    private static Message control(ClusterCommand command, String text) {
+        return Message.builder()
+                .command(command.getWireName())
+                .text(text)
+                .build();
+    }
+
+    private static final class Claim {
+        private final String home;
+        private final Consumer<Boolean> callback;
+        private volatile HashedWheelTimer.Timeout timeout;
+
+        private Claim(String home, Consumer<Boolean> callback) {
+            this.home = home;
+            this.callback = callback;
+        }
+    }
+}
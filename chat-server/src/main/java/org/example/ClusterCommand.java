@@ -0,0 +1,38 @@
+package org.example;
+
+import java.util.Optional;
+
+/**
+ * Control messages on the links between nodes, in {@link Message#getCommand()}. Link messages without
+ * a command are chat messages forwarded as they were published.
+ * HELLO carries the sender's node id in {@link Message#getName()}. The others carry a user name, or for
+ * ROSTER the sender's users separated by new lines, in {@link Message#getText()}.
+ */
+enum ClusterCommand {
+    HELLO("hello"),
+    CLAIM("claim"),
+    GRANT("grant"),
+    REFUSE("refuse"),
+    ROSTER("roster"),
+    ONLINE("online"),
+    OFFLINE("offline");
+
+    private final String wireName;
+
+    ClusterCommand(String wireName) {
+        this.wireName = wireName;
+    }
+
+    public String getWireName() {
+        return wireName;
+    }
+
+    public static Optional<ClusterCommand> forName(String wireName) {
+        for (ClusterCommand command : values()) {
+            if (command.wireName.equals(wireName)) {
+                return Optional.of(command);
+            }
+        }
+        return Optional.empty();
+    }
+}
@@ -0,0 +1,41 @@
+package org.example;
+
+import lombok.Builder;
+import lombok.Getter;
+
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.Map;
+
+@Getter
+@Builder(toBuilder = true)
+public class ClusterConfig {
+    /**
+     * Id of this node, one of the keys of {@link #nodes}.
+     */
+    private final String nodeId;
+    /**
+     * Inter-node link addresses of every node, this one included, by node id. Every node must be given
+     * the same map; a node dials the nodes with greater ids and accepts links from the others.
+     */
+    @Builder.Default
+    private final Map<String, InetSocketAddress> nodes = Collections.emptyMap();
+    /**
+     * Links flush in batches while a burst lasts; a full queue means the peer is stuck, so the link is
+     * reset and presence is resent rather than messages being dropped silently.
+     */
+    @Builder.Default
+    private final ConnectionConfig linkConfig = ConnectionConfig.builder()
+            .outboundQueueCapacity(64 * 1024)
+            .slowConsumerPolicy(SlowConsumerPolicy.DISCONNECT)
+            .maxFlushDelayMicros(500)
+            .maxBatchBytes(256 * 1024)
+            .build();
+    @Builder.Default
+    private final long reconnectMillis = 1000;
+    /**
+     * A handshake waiting this long for the node owning its name is rejected.
+     */
+    @Builder.Default
+    private final long claimTimeoutMillis = 5000;
+}
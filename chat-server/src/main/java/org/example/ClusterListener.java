@@ -0,0 +1,33 @@
+package org.example;
+
+/**
+ * Called from the link threads of {@link Cluster}.
+ */
+public interface ClusterListener {
+
+    /**
+     * A chat message published on another node, for the local members of its room.
+     */
+    void onRemoteMessage(Message message);
+
+    void onRemoteDirectMessage(Message message);
+
+    void onRemoteOnline(String name);
+
+    void onRemoteOffline(String name);
+
+    /**
+     * The link to the node is up; the local users have to be sent with {@link Cluster#sendRoster}.
+     */
+    void onLinkUp(String nodeId);
+
+    /**
+     * Another node holds the name as well, and keeps it; the local session has to end.
+     */
+    void onNameConflict(String name);
+
+    /**
+     * @return true if a joined or detached local session holds the name
+     */
+    boolean hasLocalUser(String name);
+}
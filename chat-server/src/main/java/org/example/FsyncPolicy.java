@@ -0,0 +1,16 @@
+package org.example;
+
+public enum FsyncPolicy {
+    /**
+     * Leave writing dirty pages back to the OS: survives a server crash, not a machine crash.
+     */
+    NEVER,
+    /**
+     * Force the active segment at most once per fsync interval.
+     */
+    INTERVAL,
+    /**
+     * Force the active segment after every batch the writer drains.
+     */
+    EVERY_BATCH
+}
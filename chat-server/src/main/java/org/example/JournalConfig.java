@@ -0,0 +1,29 @@
+package org.example;
+
+import lombok.Builder;
+import lombok.Getter;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+@Getter
+@Builder(toBuilder = true)
+public class JournalConfig {
+    @Builder.Default
+    private final Path directory = Paths.get("chat-journal");
+    @Builder.Default
+    private final int segmentBytes = 64 * 1024 * 1024;
+    @Builder.Default
+    private final int retainedSegments = 16;
+    @Builder.Default
+    private final int queueCapacity = 64 * 1024;
+    @Builder.Default
+    private final FsyncPolicy fsyncPolicy = FsyncPolicy.INTERVAL;
+    @Builder.Default
+    private final long fsyncIntervalMillis = 1000;
+    /**
+     * Records of the room looked at by one history read at most, matching or not.
+     */
+    @Builder.Default
+    private final int maxReadRecords = 10_000;
+}
@@ -0,0 +1,192 @@
+package org.example;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * One memory-mapped journal file. Records are an int length, a long timestamp in epoch millis, the
+ * hash of the room name and the message as a binary codec frame. The length is written last and a zero
+ * length marks the end of written data, so a record torn by a crash is dropped on recovery. The offset
+ * index (position of every record) and the room index (positions of each room's records, by room hash)
+ * live in memory and are rebuilt from the record headers when the file is reopened.
+ * <p>
+ * Only the journal writer appends; readers see records below the volatile sizes of the indexes.
+ */
+class JournalSegment {
+    static final int HEADER_BYTES = Integer.BYTES + Long.BYTES + Integer.BYTES;
+    /**
+     * A binary codec frame adds a marker byte and a varint length to its payload, well within 16 bytes.
+     */
+    static final int MAX_RECORD_BYTES = HEADER_BYTES + MessageCodec.MAX_FRAME_LENGTH + 16;
+    private static final int INITIAL_INDEX_CAPACITY = 1024;
+    private static final int INITIAL_ROOM_INDEX_CAPACITY = 16;
+    private static final Positions NO_POSITIONS = new Positions(0);
+
+    private final Path path;
+    private final long baseOffset;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final Positions records;
+    private final Map<Integer, Positions> roomRecords;
+
+    JournalSegment(Path path, long baseOffset, int segmentBytes) throws IOException {
+        this.path = path;
+        this.baseOffset = baseOffset;
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        long fileBytes = channel.size();
+        this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(segmentBytes, fileBytes));
+        this.records = new Positions(INITIAL_INDEX_CAPACITY);
+        this.roomRecords = new ConcurrentHashMap<>();
+        recover(fileBytes);
+    }
+
+    /**
+     * Records must end within the file as it was found: mapping a truncated file extends it with zeros,
+     * which would otherwise complete a record cut short.
+     */
+    private void recover(long fileBytes) {
+        int end = (int) Math.min(buffer.capacity(), fileBytes);
+        int position = 0;
+        while (position + HEADER_BYTES <= end) {
+            int length = buffer.getInt(position);
+            if (length <= 0 || position + HEADER_BYTES + length > end) {
+                break;
+            }
+            index(position, buffer.getInt(position + Integer.BYTES + Long.BYTES));
+            position += HEADER_BYTES + length;
+        }
+        clearTornRecord(position);
+        buffer.position(position);
+    }
+
+    /**
+     * Zeroes what a torn record left after the last whole one, so records appended over it are not
+     * followed by its leftovers on the next recovery. Bytes already zero are not written, so the pages
+     * of an unused file stay clean.
+     */
+    private void clearTornRecord(int position) {
+        int end = Math.min(buffer.capacity(), position + MAX_RECORD_BYTES);
+        for (int i = position; i < end; i++) {
+            if (buffer.get(i) != 0) {
+                buffer.put(i, (byte) 0);
+            }
+        }
+    }
+
+    long getBaseOffset() {
+        return baseOffset;
+    }
+
+    long getNextOffset() {
+        return baseOffset + records.size();
+    }
+
+    int getCount() {
+        return records.size();
+    }
+
+    boolean hasRoom(int frameLength) {
+        return buffer.remaining() >= HEADER_BYTES + frameLength;
+    }
+
+    void append(long timestamp, int roomHash, ByteBuffer frame) {
+        int position = buffer.position();
+        int length = frame.remaining();
+        buffer.putLong(position + Integer.BYTES, timestamp);
+        buffer.putInt(position + Integer.BYTES + Long.BYTES, roomHash);
+        buffer.position(position + HEADER_BYTES);
+        buffer.put(frame);
+        buffer.putInt(position, length);
+        index(position, roomHash);
+    }
+
+    /**
+     * The room index is updated first, so a record a reader finds in the offset index is in the room index too.
+     */
+    private void index(int position, int roomHash) {
+        roomRecords.computeIfAbsent(roomHash, hash -> new Positions(INITIAL_ROOM_INDEX_CAPACITY)).add(position);
+        records.add(position);
+    }
+
+    /**
+     * @return positions of the records of the rooms whose name has this hash, oldest first
+     */
+    Positions roomRecords(int roomHash) {
+        return roomRecords.getOrDefault(roomHash, NO_POSITIONS);
+    }
+
+    long timestamp(int position) {
+        return buffer.getLong(position + Integer.BYTES);
+    }
+
+    /**
+     * @return a read-only view of the frame of the record at the position, safe to use from any thread
+     */
+    ByteBuffer frame(int position) {
+        ByteBuffer view = buffer.asReadOnlyBuffer();
+        view.limit(position + HEADER_BYTES + buffer.getInt(position));
+        view.position(position + HEADER_BYTES);
+        return view.slice();
+    }
+
+    void force() {
+        buffer.force();
+    }
+
+    /**
+     * The mapping is left to the garbage collector, so readers holding the segment stay valid.
+     */
+    void close() throws IOException {
+        channel.close();
+    }
+
+    void delete() throws IOException {
+        close();
+        Files.deleteIfExists(path);
+    }
+
+    @Override
+    public String toString() {
+        return "JournalSegment(" + path + ", " + records.size() + " records)";
+    }
+
+    /**
+     * Record positions in append order. The array is published before the size, so readers see every
+     * position below the size.
+     */
+    static class Positions {
+        private volatile int[] positions;
+        private volatile int size;
+
+        private Positions(int initialCapacity) {
+            this.positions = new int[initialCapacity];
+        }
+
+        int size() {
+            return size;
+        }
+
+        int get(int index) {
+            return positions[index];
+        }
+
+        private void add(int position) {
+            int[] current = positions;
+            if (size == current.length) {
+                current = Arrays.copyOf(current, Math.max(1, current.length * 2));
+            }
+            current[size] = position;
+            positions = current;
+            size++;
+        }
+    }
+}
@@ -0,0 +1,262 @@
+package org.example;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Append-only message log of memory-mapped segments named after their first offset. Appends only
+ * enqueue the message; a writer thread encodes queued messages with the binary codec, writes them
+ * in batches and applies the fsync policy, so callers never wait for the disk. When the queue is
+ * full the message is not journaled and counted as dropped. Reads run on a reader thread of their own.
+ */
+public class MessageJournal implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(MessageJournal.class);
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final int MAX_BATCH = 1024;
+
+    private final JournalConfig config;
+    private final BlockingQueue<Entry> queue;
+    private final Thread writer;
+    private final ExecutorService reader;
+    private final LongAdder appended;
+    private final LongAdder dropped;
+    private volatile List<JournalSegment> segments;
+    private volatile boolean running;
+    private long lastFsyncMillis;
+
+    public MessageJournal(JournalConfig config) {
+        if (config.getSegmentBytes() < JournalSegment.MAX_RECORD_BYTES) {
+            throw new IllegalArgumentException("Segment must fit a frame of " + MessageCodec.MAX_FRAME_LENGTH + " bytes");
+        }
+        this.config = config;
+        this.queue = new ArrayBlockingQueue<>(config.getQueueCapacity());
+        this.appended = new LongAdder();
+        this.dropped = new LongAdder();
+        try {
+            this.segments = openSegments();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot open journal in " + config.getDirectory(), e);
+        }
+        this.running = true;
+        this.writer = new Thread(this::write, "journal-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+        this.reader = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "journal-reader");
+            thread.setDaemon(true);
+            return thread;
+        });
+        logger.info("Journal {} opened with {} segments, next offset {}", config.getDirectory(), segments.size(),
+                active().getNextOffset());
+    }
+
+    private List<JournalSegment> openSegments() throws IOException {
+        Files.createDirectories(config.getDirectory());
+        List<Long> baseOffsets;
+        try (Stream<Path> files = Files.list(config.getDirectory())) {
+            baseOffsets = files.map(path -> path.getFileName().toString())
+                    .filter(name -> name.endsWith(SEGMENT_SUFFIX))
+                    .map(name -> Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+        List<JournalSegment> opened = new ArrayList<>();
+        for (long baseOffset : baseOffsets) {
+            opened.add(new JournalSegment(segmentPath(baseOffset), baseOffset, config.getSegmentBytes()));
+        }
+        if (opened.isEmpty()) {
+            opened.add(new JournalSegment(segmentPath(0), 0, config.getSegmentBytes()));
+        }
+        return Collections.unmodifiableList(opened);
+    }
+
+    private Path segmentPath(long baseOffset) {
+        return config.getDirectory().resolve(String.format("%020d%s", baseOffset, SEGMENT_SUFFIX));
+    }
+
+    private JournalSegment active() {
+        return segments.get(segments.size() - 1);
+    }
+
+    /**
+     * Never blocks.
+     *
+     * @return false if the writer is behind and the message was dropped
+     */
+    public boolean append(String room, Message message) {
+        if (!running || !queue.offer(new Entry(System.currentTimeMillis(), room.hashCode(), message))) {
+            dropped.increment();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Walks back through the room's records only, looking at no more than maxReadRecords of them.
+     *
+     * @param filter has to check the room too: rooms whose names hash alike share their records
+     * @return up to count matching messages written at or after sinceMillis and before beforeMillis, oldest first,
+     *         completed on the reader thread
+     */
+    public CompletableFuture<List<Message>> readLast(String room, int count, long sinceMillis, long beforeMillis,
+                                                     Predicate<Message> filter) {
+        try {
+            return CompletableFuture.supplyAsync(() -> scanLast(room.hashCode(), count, sinceMillis, beforeMillis,
+                    filter), reader);
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    private List<Message> scanLast(int roomHash, int count, long sinceMillis, long beforeMillis,
+                                   Predicate<Message> filter) {
+        Deque<Message> found = new ArrayDeque<>();
+        List<JournalSegment> snapshot = segments;
+        int budget = config.getMaxReadRecords();
+        for (int s = snapshot.size() - 1; s >= 0 && found.size() < count; s--) {
+            JournalSegment segment = snapshot.get(s);
+            JournalSegment.Positions records = segment.roomRecords(roomHash);
+            for (int i = records.size() - 1; i >= 0 && found.size() < count; i--) {
+                if (budget-- == 0) {
+                    return new ArrayList<>(found);
+                }
+                int position = records.get(i);
+                long timestamp = segment.timestamp(position);
+                if (timestamp < sinceMillis) {
+                    return new ArrayList<>(found);
+                }
+                if (timestamp >= beforeMillis) {
+                    continue;
+                }
+                Message message = MessageCodecs.BINARY.decode(segment.frame(position));
+                if (message != null && filter.test(message)) {
+                    found.addFirst(message);
+                }
+            }
+        }
+        return new ArrayList<>(found);
+    }
+
+    public long getNextOffset() {
+        return active().getNextOffset();
+    }
+
+    public long getAppended() {
+        return appended.sum();
+    }
+
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    private void write() {
+        List<Entry> batch = new ArrayList<>(MAX_BATCH);
+        try {
+            while (running || !queue.isEmpty()) {
+                Entry first = queue.poll(config.getFsyncIntervalMillis(), TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch, MAX_BATCH - 1);
+                    for (Entry entry : batch) {
+                        writeEntry(entry);
+                    }
+                    appended.add(batch.size());
+                    batch.clear();
+                }
+                fsync(first != null);
+            }
+        } catch (InterruptedException e) {
+            logger.info("Journal writer stopped");
+        } catch (IOException | RuntimeException e) {
+            logger.error("Journal writer failed, messages are no longer journaled", e);
+            running = false;
+        }
+    }
+
+    private void writeEntry(Entry entry) throws IOException {
+        ByteBuffer frame = MessageCodecs.BINARY.encode(entry.message).asByteBuffer();
+        JournalSegment segment = active();
+        if (!segment.hasRoom(frame.remaining())) {
+            segment = roll(segment);
+        }
+        segment.append(entry.timestamp, entry.roomHash, frame);
+    }
+
+    private JournalSegment roll(JournalSegment full) throws IOException {
+        full.force();
+        JournalSegment next = new JournalSegment(segmentPath(full.getNextOffset()), full.getNextOffset(),
+                config.getSegmentBytes());
+        List<JournalSegment> rolled = new ArrayList<>(segments);
+        rolled.add(next);
+        while (rolled.size() > config.getRetainedSegments()) {
+            JournalSegment expired = rolled.remove(0);
+            expired.delete();
+            logger.info("Journal segment {} deleted by retention", expired);
+        }
+        segments = Collections.unmodifiableList(rolled);
+        return next;
+    }
+
+    private void fsync(boolean wrote) {
+        long now = System.currentTimeMillis();
+        boolean due = config.getFsyncPolicy() == FsyncPolicy.EVERY_BATCH && wrote
+                || config.getFsyncPolicy() == FsyncPolicy.INTERVAL && now - lastFsyncMillis >= config.getFsyncIntervalMillis();
+        if (due) {
+            active().force();
+            lastFsyncMillis = now;
+        }
+    }
+
+    /**
+     * Writes out what is queued, forces the active segment and closes all segments.
+     */
+    @Override
+    public void close() throws IOException {
+        running = false;
+        reader.shutdown();
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (JournalSegment segment : segments) {
+            segment.force();
+            segment.close();
+        }
+    }
+
+    private static class Entry {
+        private final long timestamp;
+        private final int roomHash;
+        private final Message message;
+
+        private Entry(long timestamp, int roomHash, Message message) {
+            this.timestamp = timestamp;
+            this.roomHash = roomHash;
+            this.message = message;
+        }
+    }
+}
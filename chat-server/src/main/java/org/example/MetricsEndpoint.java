@@ -0,0 +1,149 @@
+package org.example;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+
+/**
+ * Publishes the metrics as JMX MBeans and, if a port is given, as Prometheus-style plain text on
+ * http://127.0.0.1:port/metrics. The endpoint only listens on loopback.
+ */
+public class MetricsEndpoint {
+    private static final Logger logger = LoggerFactory.getLogger(MetricsEndpoint.class);
+    private static final String SERVER_MBEAN = "org.example:type=ServerMetrics";
+    private static final String CONNECTIONS_MBEAN = "org.example:type=ConnectionMetrics";
+    private static final double[] QUANTILES = {0.5, 0.99, 0.999};
+
+    private final ServerMetrics serverMetrics;
+    private final ConnectionMetrics connectionMetrics;
+    private HttpServer httpServer;
+
+    public MetricsEndpoint(ServerMetrics serverMetrics, ConnectionMetrics connectionMetrics) {
+        this.serverMetrics = serverMetrics;
+        this.connectionMetrics = connectionMetrics;
+    }
+
+    /**
+     * @param httpPort port of the plain-text endpoint, 0 for JMX only
+     */
+    public void start(int httpPort) {
+        MBeans.register(SERVER_MBEAN, serverMetrics);
+        MBeans.register(CONNECTIONS_MBEAN, connectionMetrics);
+        if (httpPort <= 0) {
+            return;
+        }
+        try {
+            httpServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), httpPort), 0);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot open metrics endpoint on port " + httpPort, e);
+        }
+        httpServer.createContext("/metrics", this::handle);
+        httpServer.setExecutor(Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "metrics-endpoint");
+            thread.setDaemon(true);
+            return thread;
+        }));
+        httpServer.start();
+        logger.info("Metrics endpoint on http://127.0.0.1:{}/metrics", httpPort);
+    }
+
+    public void stop() {
+        if (httpServer != null) {
+            httpServer.stop(0);
+        }
+        MBeans.unregister(SERVER_MBEAN);
+        MBeans.unregister(CONNECTIONS_MBEAN);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        byte[] body = scrape().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    String scrape() {
+        StringBuilder text = new StringBuilder(4096);
+        gauge(text, "chat_connections_active", connectionMetrics.getActiveConnections());
+        counter(text, "chat_connections_opened_total", connectionMetrics.getOpenedConnections());
+        counter(text, "chat_connections_closed_total", connectionMetrics.getClosedConnections());
+        counter(text, "chat_messages_in_total", connectionMetrics.getMessagesIn());
+        counter(text, "chat_messages_out_total", connectionMetrics.getMessagesOut());
+        counter(text, "chat_bytes_in_total", connectionMetrics.getBytesIn());
+        counter(text, "chat_bytes_out_total", connectionMetrics.getBytesOut());
+        counter(text, "chat_messages_dropped_total", connectionMetrics.getDroppedMessages());
+        counter(text, "chat_messages_throttled_total", connectionMetrics.getThrottledMessages());
+        counter(text, "chat_bytes_throttled_total", connectionMetrics.getThrottledBytes());
+        counter(text, "chat_throttle_delay_milliseconds_total", connectionMetrics.getThrottleDelayMillis());
+        gauge(text, "chat_users_joined", serverMetrics.getJoinedUsers());
+        gauge(text, "chat_rooms", serverMetrics.getRooms());
+        counter(text, "chat_joins_total", serverMetrics.getJoins());
+        counter(text, "chat_leaves_total", serverMetrics.getLeaves());
+        counter(text, "chat_handshake_failures_total", serverMetrics.getHandshakeFailures());
+        gauge(text, "chat_sessions_detached", serverMetrics.getDetachedSessions());
+        counter(text, "chat_session_resumes_total", serverMetrics.getResumes());
+        counter(text, "chat_idle_disconnects_total", serverMetrics.getIdleDisconnects());
+        counter(text, "chat_messages_published_total", serverMetrics.getMessagesPublished());
+        counter(text, "chat_direct_messages_total", serverMetrics.getDirectMessages());
+        counter(text, "chat_history_messages_skipped_total", serverMetrics.getHistoryMessagesSkipped());
+        counter(text, "chat_broadcast_recipients_total", serverMetrics.getBroadcastRecipients());
+        gauge(text, "chat_cluster_links", serverMetrics.getClusterLinks());
+        gauge(text, "chat_cluster_remote_users", serverMetrics.getRemoteUsers());
+        counter(text, "chat_cluster_messages_forwarded_total", serverMetrics.getClusterMessagesForwarded());
+        counter(text, "chat_cluster_messages_received_total", serverMetrics.getClusterMessagesReceived());
+        summary(text, "chat_handshake_seconds", serverMetrics.getHandshakeNanos());
+        summary(text, "chat_broadcast_seconds", serverMetrics.getBroadcastNanos());
+        counter(text, "chat_shard_submissions_blocked_total", serverMetrics.getShardSubmissionsBlocked());
+        text.append("# TYPE chat_shard_queue_depth gauge\n");
+        PartitionedExecutor shards = serverMetrics.getShards();
+        for (int shard = 0; shard < shards.getShardCount(); shard++) {
+            text.append("chat_shard_queue_depth{shard=\"").append(shard).append("\"} ")
+                    .append(shards.getQueueDepth(shard)).append('\n');
+        }
+        text.append("# TYPE chat_connection_outbound_backlog gauge\n");
+        for (Session session : serverMetrics.getUsers().joined()) {
+            TCPConnection connection = session.getConnection();
+            text.append("chat_connection_outbound_backlog{user=\"").append(escape(connection.getName())).append("\"} ")
+                    .append(connection.getOutboundBacklog()).append('\n');
+        }
+        return text.toString();
+    }
+
+    private static void counter(StringBuilder text, String name, long value) {
+        text.append("# TYPE ").append(name).append(" counter\n").append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void gauge(StringBuilder text, String name, long value) {
+        text.append("# TYPE ").append(name).append(" gauge\n").append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void summary(StringBuilder text, String name, LatencyHistogram nanos) {
+        text.append("# TYPE ").append(name).append(" summary\n");
+        for (double quantile : QUANTILES) {
+            text.append(name).append("{quantile=\"").append(quantile).append("\"} ")
+                    .append(seconds(nanos.percentile(quantile * 100))).append('\n');
+        }
+        text.append(name).append("_sum ").append(seconds(nanos.getSum())).append('\n');
+        text.append(name).append("_count ").append(nanos.getCount()).append('\n');
+    }
+
+    private static String seconds(long nanos) {
+        return String.format(Locale.ROOT, "%.9f", nanos / 1e9);
+    }
+
+    private static String escape(String label) {
+        return label == null ? "" : label.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
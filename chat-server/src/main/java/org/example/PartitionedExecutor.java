@@ -0,0 +1,135 @@
+package org.example;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Fixed set of single-threaded shards. Tasks for the same shard run one at a time in submission
+ * order, tasks for different shards run in parallel.
+ * <p>
+ * Each shard queues at most queueCapacity tasks. A thread submitting to a full shard waits for room, so
+ * the event loop or receiver behind it stops reading and the backpressure reaches the clients over TCP.
+ * A shard submitting to itself cannot wait for itself: the task runs right away instead.
+ */
+public class PartitionedExecutor {
+    private static final Logger logger = LoggerFactory.getLogger(PartitionedExecutor.class);
+
+    private final ThreadPoolExecutor[] shards;
+    private final Thread[] threads;
+    private final LongAdder blockedSubmissions = new LongAdder();
+
+    public PartitionedExecutor(String name, int shardCount, int queueCapacity) {
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("Shard count must be positive: " + shardCount);
+        }
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("Shard queue capacity must be positive: " + queueCapacity);
+        }
+        this.shards = new ThreadPoolExecutor[shardCount];
+        this.threads = new Thread[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            int shard = i;
+            String threadName = name + "-" + i;
+            shards[i] = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+                Thread thread = new Thread(runnable, threadName);
+                thread.setDaemon(true);
+                threads[shard] = thread;
+                return thread;
+            }, new WaitForRoom(shard));
+            shards[i].prestartCoreThread();
+        }
+    }
+
+    public int shardOf(Object key) {
+        int hash = key.hashCode();
+        return Math.floorMod(hash ^ (hash >>> 16), shards.length);
+    }
+
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    /**
+     * Waits while the shard is full. Tasks submitted after shutdown, or by a thread interrupted while
+     * waiting, are dropped. The task only captures a ShardWaitEvent while
+     * the event is enabled, so it costs nothing otherwise.
+     */
+    public void execute(int shard, Runnable task) {
+        ShardWaitEvent event = new ShardWaitEvent();
+        ShardWaitEvent wait = event.isEnabled() ? event : null;
+        if (wait != null) {
+            wait.begin();
+        }
+        try {
+            shards[shard].execute(() -> {
+                if (wait != null) {
+                    wait.end();
+                    if (wait.shouldCommit()) {
+                        wait.shard = shard;
+                        wait.commit();
+                    }
+                }
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    logger.error("Task error in shard {}", shard, e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            logger.debug("{}, task dropped", e.getMessage());
+        }
+    }
+
+    public int getQueueDepth(int shard) {
+        return shards[shard].getQueue().size();
+    }
+
+    /**
+     * @return submissions that found their shard full and had to wait or run on the shard's own thread
+     */
+    public long getBlockedSubmissions() {
+        return blockedSubmissions.sum();
+    }
+
+    public void shutdown() {
+        for (ThreadPoolExecutor shard : shards) {
+            shard.shutdown();
+        }
+    }
+
+    private class WaitForRoom implements RejectedExecutionHandler {
+        private final int shard;
+
+        private WaitForRoom(int shard) {
+            this.shard = shard;
+        }
+
+        @Override
+        public void rejectedExecution(Runnable task, ThreadPoolExecutor executor) {
+            if (executor.isShutdown()) {
+                throw new RejectedExecutionException("Shard " + shard + " is shut down");
+            }
+            blockedSubmissions.increment();
+            if (Thread.currentThread() == threads[shard]) {
+                logger.warn("Shard {} is full, running its own task in place", shard);
+                task.run();
+                return;
+            }
+            logger.debug("Shard {} is full, waiting for room", shard);
+            try {
+                executor.getQueue().put(task);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RejectedExecutionException("Interrupted while waiting for shard " + shard, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package org.example;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded ring of a room's latest messages together with the frames they were broadcast as, so
+ * history is replayed by writing cached bytes instead of encoding again. Capped by entries and by
+ * frame bytes, oldest entries are evicted first. A message whose frames alone exceed the byte cap is
+ * kept as a skipped entry holding its seq only, for replays to read from the journal.
+ * <p>
+ * Only the room's shard adds entries; readers on any thread are lock-free and skip slots that were
+ * overwritten while they read.
+ */
+public class RecentHistory {
+    private final int capacity;
+    private final long maxBytes;
+    private final AtomicReferenceArray<Entry> slots;
+    private volatile long head;
+    private volatile long tail;
+    private volatile boolean complete;
+    private long bytes;
+
+    public RecentHistory(int capacity, long maxBytes) {
+        this.capacity = capacity;
+        this.maxBytes = maxBytes;
+        this.slots = new AtomicReferenceArray<>(capacity);
+        this.complete = true;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return true while nothing has been evicted, i.e. the ring holds every message it was given
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * @param frames frames of the message by codec, not modified afterwards
+     * @return false if the message was larger than the byte cap and kept as a skipped entry
+     */
+    boolean add(long timestamp, Message message, Map<MessageCodec, Frame> frames) {
+        if (capacity == 0) {
+            complete = false;
+            return true;
+        }
+        long size = 0;
+        for (Frame frame : frames.values()) {
+            size += frame.length();
+        }
+        boolean fits = size <= maxBytes;
+        if (!fits) {
+            size = 0;
+        }
+        long sequence = head;
+        long oldest = tail;
+        while (oldest < sequence && (sequence - oldest >= capacity || bytes + size > maxBytes)) {
+            bytes -= slots.get(index(oldest)).size;
+            oldest++;
+            complete = false;
+        }
+        tail = oldest;
+        slots.set(index(sequence), fits
+                ? new Entry(sequence, timestamp, message.getSeq(), message, frames, size)
+                : new Entry(sequence, timestamp, message.getSeq(), null, null, 0));
+        bytes += size;
+        head = sequence + 1;
+        return fits;
+    }
+
+    /**
+     * @return up to count entries added at or after sinceMillis, oldest first
+     */
+    public List<Entry> last(int count, long sinceMillis) {
+        long end = head;
+        long start = Math.max(tail, end - Math.min(count, capacity));
+        if (start >= end) {
+            return Collections.emptyList();
+        }
+        List<Entry> entries = new ArrayList<>((int) (end - start));
+        for (long sequence = start; sequence < end; sequence++) {
+            Entry entry = slots.get(index(sequence));
+            if (entry != null && entry.sequence == sequence && entry.timestamp >= sinceMillis) {
+                entries.add(entry);
+            }
+        }
+        return entries;
+    }
+
+    private int index(long sequence) {
+        return (int) (sequence % capacity);
+    }
+
+    public static class Entry {
+        private final long sequence;
+        private final long timestamp;
+        private final Long seq;
+        private final Message message;
+        private final Map<MessageCodec, Frame> frames;
+        private final long size;
+
+        private Entry(long sequence, long timestamp, Long seq, Message message, Map<MessageCodec, Frame> frames,
+                      long size) {
+            this.sequence = sequence;
+            this.timestamp = timestamp;
+            this.seq = seq;
+            this.message = message;
+            this.frames = frames;
+            this.size = size;
+        }
+
+        /**
+         * @return the room seq of the message
+         */
+        public Long getSeq() {
+            return seq;
+        }
+
+        /**
+         * @return true if only the seq of the message was kept
+         */
+        public boolean isSkipped() {
+            return message == null;
+        }
+
+        /**
+         * @return the message, null if skipped
+         */
+        public Message getMessage() {
+            return message;
+        }
+
+        /**
+         * @return the cached frame, encoded on the spot if nobody in the room used this codec
+         */
+        public Frame frame(MessageCodec codec) {
+            Frame frame = frames.get(codec);
+            return frame != null ? frame : codec.encode(message);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package org.example;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Members of one room. Broadcasts to the room always run on its shard, so they keep their order.
+ */
+public class Room {
+    public static final String DEFAULT = "general";
+    /**
+     * Sequence numbers start at the creation time in these units, so a room recreated after a restart
+     * continues above the numbers clients have seen unless it published more than this per millisecond.
+     */
+    private static final long SEQS_PER_MILLI = 1000;
+
+    private final String name;
+    private final int shard;
+    private final Set<Session> members;
+    private final RecentHistory history;
+    private final long createdMillis;
+    private long lastSeq;
+
+    public Room(String name, int shard, RecentHistory history) {
+        this.name = name;
+        this.shard = shard;
+        this.members = ConcurrentHashMap.newKeySet();
+        this.history = history;
+        this.createdMillis = System.currentTimeMillis();
+        this.lastSeq = createdMillis * SEQS_PER_MILLI;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getShard() {
+        return shard;
+    }
+
+    public RecentHistory getHistory() {
+        return history;
+    }
+
+    public long getCreatedMillis() {
+        return createdMillis;
+    }
+
+    /**
+     * Must only be called on the room's shard.
+     */
+    long nextSeq() {
+        return ++lastSeq;
+    }
+
+    /**
+     * Must only be called on the room's shard.
+     */
+    long getLastSeq() {
+        return lastSeq;
+    }
+
+    public boolean isDefault() {
+        return DEFAULT.equals(name);
+    }
+
+    public Collection<Session> getMembers() {
+        return Collections.unmodifiableSet(members);
+    }
+
+    public boolean contains(Session session) {
+        return members.contains(session);
+    }
+
+    public int size() {
+        return members.size();
+    }
+
+    boolean add(Session session) {
+        return members.add(session);
+    }
+
+    boolean remove(Session session) {
+        return members.remove(session);
+    }
+
+    boolean isEmpty() {
+        return members.isEmpty();
+    }
+}
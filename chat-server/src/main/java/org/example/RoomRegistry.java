@@ -0,0 +1,72 @@
+package org.example;
+
+import java.util.Collection;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Rooms by name. Membership changes run inside the map's per-key compute, so a room emptied by its
+ * last member is dropped without racing a concurrent join. The default room is never dropped.
+ */
+public class RoomRegistry {
+    private final ConcurrentMap<String, Room> rooms;
+    private final PartitionedExecutor shards;
+    private final int historyCapacity;
+    private final long historyMaxBytes;
+
+    public RoomRegistry(PartitionedExecutor shards, int historyCapacity, long historyMaxBytes) {
+        this.rooms = new ConcurrentHashMap<>();
+        this.shards = shards;
+        this.historyCapacity = historyCapacity;
+        this.historyMaxBytes = historyMaxBytes;
+        rooms.put(Room.DEFAULT, newRoom(Room.DEFAULT));
+    }
+
+    private Room newRoom(String name) {
+        return new Room(name, shards.shardOf(name), new RecentHistory(historyCapacity, historyMaxBytes));
+    }
+
+    /**
+     * @return the room, or null if the session already was a member
+     */
+    public Room join(Session session, String name) {
+        boolean[] added = new boolean[1];
+        Room room = rooms.compute(name, (key, existing) -> {
+            Room target = existing == null ? newRoom(key) : existing;
+            added[0] = target.add(session);
+            return target;
+        });
+        if (!added[0]) {
+            return null;
+        }
+        session.addRoom(name);
+        return room;
+    }
+
+    /**
+     * @return the room, or null if the session was not a member
+     */
+    public Room leave(Session session, String name) {
+        boolean[] removed = new boolean[1];
+        Room[] left = new Room[1];
+        rooms.computeIfPresent(name, (key, room) -> {
+            removed[0] = room.remove(session);
+            left[0] = room;
+            return room.isEmpty() && !room.isDefault() ? null : room;
+        });
+        if (!removed[0]) {
+            return null;
+        }
+        session.removeRoom(name);
+        return left[0];
+    }
+
+    public Optional<Room> find(String name) {
+        return Optional.ofNullable(rooms.get(name));
+    }
+
+    public Collection<Room> rooms() {
+        return rooms.values();
+    }
+}
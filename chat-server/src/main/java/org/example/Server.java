@@ -4,32 +4,116 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.security.SecureRandom;
+import java.time.LocalTime;
+import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
-import java.util.Optional;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 
-public class Server implements TCPConnectionListener {
+public class Server implements TCPConnectionListener, ClusterListener {
     private static final Logger logger = LoggerFactory.getLogger(Server.class);
     private static final String WRONG_MESSAGE_FORMAT = "Message you sent is in a wrong format. You will be disconnected";
+    private static final String HANDSHAKE_TIMEOUT = "You did not introduce yourself in time. You will be disconnected";
+    private static final String THROTTLED = "You are sending messages too fast. Some of them were not delivered";
     private static final String BOT_NAME = "SERVER";
+    private static final int ACCEPT_BACKLOG = 1024;
+    private static final int MAX_ROOM_NAME_LENGTH = 64;
+    private static final String AUDIT_MBEAN = "org.example:type=AuditLog";
+    private static final int TIMER_TICKS_PER_WHEEL = 512;
+    private static final String PRESENCE = "presence";
+    private static final int ROSTER_CHUNK_NAMES = 1000;
+    private static final int TOKEN_BYTES = 16;
+    private static final int MAX_CATCH_UP = 1000;
+    private static final int MAX_FILE_NAME_LENGTH = 255;
 
     private final int port;
-    private final List<TCPConnection> tcpConnections;
-    private final List<String> userNames;
+    private final ConnectionConfig connectionConfig;
+    private final long handshakeTimeoutMillis;
+    private final long heartbeatIntervalNanos;
+    private final long idleTimeoutNanos;
+    private final long resumeWindowMillis;
+    private final SecureRandom tokenRandom;
+    private final UserRegistry users;
+    private final RoomRegistry rooms;
+    private final PartitionedExecutor broadcastShards;
+    private final int presenceShard;
+    private final int historyReplayCount;
+    private final int historyCapacity;
+    private final long historyReplayMaxAgeMillis;
+    private final MessageJournal journal;
+    private final ServerMetrics metrics;
+    private final MetricsEndpoint metricsEndpoint;
+    private final AuditLog auditLog;
+    private final HashedWheelTimer timer;
+    private final Cluster cluster;
+    private final AttachmentStore attachments;
 
     public Server(int port) {
-        this.tcpConnections = new ArrayList<>();
-        this.userNames = new ArrayList<>();
-        this.port = port;
+        this(ServerConfig.builder().port(port).build());
     }
 
-    public synchronized void startServer() {
-        try (ServerSocket serverSocket = new ServerSocket(port)) {
+    public Server(ServerConfig config) {
+        this.port = config.getPort();
+        this.connectionConfig = config.getConnectionConfig();
+        this.handshakeTimeoutMillis = config.getHandshakeTimeoutMillis();
+        this.heartbeatIntervalNanos = TimeUnit.MILLISECONDS.toNanos(config.getHeartbeatIntervalMillis());
+        this.idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(config.getIdleTimeoutMillis());
+        this.resumeWindowMillis = config.getResumeWindowMillis();
+        this.tokenRandom = new SecureRandom();
+        this.users = new UserRegistry();
+        this.broadcastShards = new PartitionedExecutor("broadcast", config.getBroadcastShards(),
+                config.getShardQueueCapacity());
+        this.presenceShard = broadcastShards.shardOf(PRESENCE);
+        this.rooms = new RoomRegistry(broadcastShards, config.getHistoryCapacity(), config.getHistoryMaxBytes());
+        this.historyReplayCount = config.getHistoryReplayCount();
+        this.historyCapacity = config.getHistoryCapacity();
+        this.historyReplayMaxAgeMillis = config.getHistoryReplayMaxAgeMillis();
+        this.journal = config.getJournalConfig() == null ? null : new MessageJournal(config.getJournalConfig());
+        this.timer = new HashedWheelTimer("chat-timer", config.getTimerTickMillis(), TimeUnit.MILLISECONDS,
+                TIMER_TICKS_PER_WHEEL);
+        this.cluster = config.getClusterConfig() == null ? null : new Cluster(config.getClusterConfig(), this, timer);
+        this.attachments = config.getAttachmentConfig() == null
+                ? null
+                : new AttachmentStore(config.getAttachmentConfig(), timer);
+        this.metrics = new ServerMetrics(users, rooms, broadcastShards, cluster);
+        this.metricsEndpoint = new MetricsEndpoint(metrics, connectionConfig.getMetrics());
+        metricsEndpoint.start(config.getMetricsPort());
+        this.auditLog = new AuditLog(config.getAuditSampleRate(), config.getAuditQueueCapacity(),
+                config.getAuditTracedUsers());
+        MBeans.register(AUDIT_MBEAN, auditLog);
+        if (connectionConfig.getSlowConsumerPolicy() == SlowConsumerPolicy.DISCONNECT) {
+            scheduleBacklogCheck();
+        }
+        if (cluster != null) {
+            cluster.start();
+        }
+    }
+
+    public void startServer() {
+        startServer(ConnectionExecutors.platformThreads());
+    }
+
+    public void startServer(Executor connectionExecutor) {
+        try (ServerSocket serverSocket = new ServerSocket(port, ACCEPT_BACKLOG)) {
             logger.info("Server running on port [{}]", serverSocket.getLocalPort());
             while (true) {
-                new TCPConnection(this, serverSocket.accept());
+                new BlockingTCPConnection(this, serverSocket.accept(), connectionExecutor, connectionConfig);
             }
         } catch (IOException e) {
             logger.error("Exception on startServer");
@@ -37,92 +121,1044 @@ public class Server implements TCPConnectionListener {
         }
     }
 
+    public void startNioServer(int eventLoopThreads) {
+        NioEventLoopGroup eventLoopGroup = null;
+        try (ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+            serverChannel.bind(new InetSocketAddress(port), ACCEPT_BACKLOG);
+            eventLoopGroup = new NioEventLoopGroup(eventLoopThreads, connectionConfig);
+            logger.info("NIO server running on port [{}] with {} event loops", port, eventLoopThreads);
+            while (true) {
+                eventLoopGroup.register(serverChannel.accept(), this);
+            }
+        } catch (IOException e) {
+            logger.error("Exception on startNioServer");
+            throw new RuntimeException();
+        } finally {
+            if (eventLoopGroup != null) {
+                eventLoopGroup.shutdown();
+            }
+        }
+    }
+
+    public ServerMetrics getMetrics() {
+        return metrics;
+    }
+
+    public void stop() {
+        if (cluster != null) {
+            cluster.stop();
+        }
+        timer.stop();
+        metricsEndpoint.stop();
+        MBeans.unregister(AUDIT_MBEAN);
+        auditLog.stop();
+        broadcastShards.shutdown();
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Does not block: the connection only waits for its name message, which arrives through
+     * onReceiveMessage, and is dropped if it does not come within the handshake timeout.
+     */
     @Override
-    public synchronized void onConnectionReady(TCPConnection tcpConnection) {
+    public void onConnectionReady(TCPConnection tcpConnection) {
         logger.info("Method onConnectionReady (server)");
-        logger.info("Get name method");
+        Session session = users.open(tcpConnection);
+        session.setTimeout(timer.schedule(() -> onHandshakeTimeout(session),
+                handshakeTimeoutMillis, TimeUnit.MILLISECONDS));
+    }
+
+    @Override
+    public void onReceiveMessage(TCPConnection tcpConnection, Message message) {
+        Session session = users.get(tcpConnection);
+        if (session == null) {
+            return;
+        }
+        if (session.getState() == Session.State.AWAITING_NAME) {
+            onHandshakeMessage(session, message);
+            return;
+        }
+        if (session.getState() != Session.State.JOINED) {
+            return;
+        }
+        auditLog.received(tcpConnection.getName(), message);
+        if (message.getCommand() != null) {
+            onCommand(session, message);
+            return;
+        }
+        if (message.getRecipient() != null) {
+            onDirectMessage(session, message);
+            return;
+        }
+        String roomName = roomOf(message);
+        Room room = rooms.find(roomName).filter(r -> r.contains(session)).orElse(null);
+        if (room == null) {
+            sendMessageToOneConnection(tcpConnection, botMessage(tcpConnection, "You are not in room " + roomName));
+            return;
+        }
+        message.setName(tcpConnection.getName());
+        message.setCodec(null);
+        message.setToken(null);
+        message.setFeatures(null);
+        publishToRoom(room, message);
+    }
+
+    /**
+     * Written to the spool file on the connection's own thread; the disk write goes to the page cache.
+     * Chunks that do not continue the upload, left over from a transfer the client restarted, are ignored.
+     */
+    @Override
+    public void onChunk(TCPConnection tcpConnection, Chunk chunk) {
+        Session session = users.get(tcpConnection);
+        if (attachments == null || session == null || session.getState() != Session.State.JOINED) {
+            return;
+        }
+        AttachmentStore.Attachment attachment = attachments.find(chunk.getId())
+                .filter(found -> found.getUploader().equals(tcpConnection.getName()))
+                .orElse(null);
+        if (attachment == null) {
+            return;
+        }
         try {
-            Optional<Message> optionalMessage;
-            if (!(optionalMessage = tcpConnection.readMessage()).equals(Optional.empty())) {
-                Message message = optionalMessage.get();
-                logger.info("Read message {}", message);
-                if (validateUserName(message.getName())) {
-                    onNewUserEntersChat(tcpConnection, message);
-                    sendMessageToAllConnections(getGreetingsMessage(tcpConnection));
-                }
-            } else {
-                logger.info("Read message {}", optionalMessage);
-                sendMessageToOneConnection(tcpConnection,
-                        Message.builder()
-                                .name(BOT_NAME)
-                                .text(WRONG_MESSAGE_FORMAT)
-                                .time(tcpConnection.getTime())
-                                .build());
-                tcpConnection.disconnect();
+            if (attachment.append(chunk.getOffset(), chunk.getData()) && attachment.isComplete()) {
+                announceAttachment(attachment);
             }
         } catch (IOException e) {
-            onException(tcpConnection, e);
+            logger.error("Cannot write attachment {}", attachment.getId(), e);
+            attachments.delete(attachment);
+            sendMessageToOneConnection(tcpConnection,
+                    botMessage(tcpConnection, "Upload of " + attachment.getFileName() + " failed"));
+        }
+    }
+
+    /**
+     * A joined session with a token is detached rather than ended, so a client that reconnects within the
+     * resume window keeps its name and rooms and only catches up on what it missed.
+     */
+    @Override
+    public void onDisconnect(TCPConnection tcpConnection) {
+        logger.info("Method onDisconnect (server)");
+        Session session = users.get(tcpConnection);
+        if (session == null || session.getConnection() != tcpConnection) {
+            return;
+        }
+        session.cancelTimeout();
+        if (detachSession(session)) {
+            return;
+        }
+        users.remove(tcpConnection);
+        Session.State state = session.close();
+        if (state == Session.State.JOINED || state == Session.State.DETACHED) {
+            endSession(session);
+        }
+    }
+
+    private boolean detachSession(Session session) {
+        if (session.getToken() == null || !session.transition(Session.State.JOINED, Session.State.DETACHED)) {
+            return false;
+        }
+        session.setDetachedAtMillis(System.currentTimeMillis());
+        users.detach(session);
+        session.setTimeout(timer.schedule(() -> expireSession(session), resumeWindowMillis,
+                TimeUnit.MILLISECONDS));
+        logger.info("Session of {} detached", session.getConnection().getName());
+        return true;
+    }
+
+    private void expireSession(Session session) {
+        if (users.expire(session) && session.close() == Session.State.DETACHED) {
+            logger.info("Session of {} expired", session.getConnection().getName());
+            endSession(session);
         }
+    }
 
+    private void endSession(Session session) {
+        TCPConnection tcpConnection = session.getConnection();
+        metrics.recordLeave();
+        announceOffline(tcpConnection.getName());
+        for (String roomName : session.getRooms()) {
+            Room room = rooms.leave(session, roomName);
+            if (room != null) {
+                sendMessageToRoom(room, roomMessage(tcpConnection, room,
+                        "Client " + tcpConnection.getName() + " disconnected\r\n"));
+            }
+        }
     }
 
     @Override
-    public synchronized void onReceiveMessage(TCPConnection tcpConnection, Message message) {
-        logger.info("Received message {} from user {}", message, tcpConnection.getName());
-        sendMessageToAllConnections(message);
+    public void onException(TCPConnection tcpConnection, Exception e) {
+        logger.error("Method onException on server.", e);
+
     }
 
     @Override
-    public synchronized void onDisconnect(TCPConnection tcpConnection) {
-        logger.info("Method onDisconnect (server)");
-        tcpConnections.remove(tcpConnection);
-        if (tcpConnection.getName() != null) {
-            sendMessageToAllConnections(
-                    Message.builder()
-                            .name(BOT_NAME)
-                            .text("Client " + tcpConnection.getName() + " disconnected\r\n")
-                            .time(tcpConnection.getTime())
-                            .build());
+    public void onThrottled(TCPConnection tcpConnection) {
+        logger.info("Connection {} is over its rate limits, dropping its messages", tcpConnection);
+        sendMessageToOneConnection(tcpConnection, botMessage(tcpConnection, THROTTLED));
+    }
+
+    /**
+     * Dropped if no local user is in the room; rooms exist on a node only while it has members there.
+     */
+    @Override
+    public void onRemoteMessage(Message message) {
+        rooms.find(roomOf(message)).ifPresent(room ->
+                broadcastShards.execute(room.getShard(), () -> deliverToRoom(room, message)));
+    }
+
+    @Override
+    public void onRemoteDirectMessage(Message message) {
+        Session recipient = users.find(message.getRecipient())
+                .filter(found -> found.getState() == Session.State.JOINED)
+                .orElse(null);
+        if (recipient == null) {
+            logger.debug("Direct message to {} from another node dropped, the user left", message.getRecipient());
+            return;
         }
+        sendMessageToOneConnection(recipient.getConnection(), message);
     }
 
     @Override
-    public synchronized void onException(TCPConnection tcpConnection, Exception e) {
-        logger.error("Method onException on server.", e);
+    public void onRemoteOnline(String name) {
+        broadcastShards.execute(presenceShard, () ->
+                sendMessageToAllConnections(presenceRecipients(), presenceMessage(Command.ONLINE, name)));
+    }
+
+    @Override
+    public void onRemoteOffline(String name) {
+        broadcastShards.execute(presenceShard, () -> {
+            if (users.find(name).isPresent() || cluster.isRemoteUser(name)) {
+                return;
+            }
+            sendMessageToAllConnections(presenceRecipients(), presenceMessage(Command.OFFLINE, name));
+        });
+    }
+
+    /**
+     * Queued on the presence shard, so the snapshot comes before any change announced after it.
+     */
+    @Override
+    public void onLinkUp(String nodeId) {
+        broadcastShards.execute(presenceShard, () -> cluster.sendRoster(nodeId, localUserNames()));
+    }
+
+    @Override
+    public void onNameConflict(String name) {
+        users.find(name).ifPresent(session -> {
+            TCPConnection tcpConnection = session.getConnection();
+            session.cancelTimeout();
+            users.expire(session);
+            users.remove(tcpConnection);
+            Session.State state = session.close();
+            if (state == Session.State.JOINED || state == Session.State.DETACHED) {
+                endSession(session);
+            }
+            sendMessageToOneConnection(tcpConnection,
+                    botMessage(tcpConnection, "Name " + name + " is in use on another node. You will be disconnected"));
+            tcpConnection.disconnect();
+        });
+    }
+
+    @Override
+    public boolean hasLocalUser(String name) {
+        return users.find(name)
+                .filter(session -> session.getState() == Session.State.JOINED
+                        || session.getState() == Session.State.DETACHED)
+                .isPresent();
+    }
+
+    private void onHandshakeMessage(Session session, Message message) {
+        if (message.getToken() != null && Command.RESUME.getWireName().equals(message.getCommand())
+                && resumeSession(session, message)) {
+            return;
+        }
+        if (!validateUserName(message.getName())) {
+            rejectHandshake(session, WRONG_MESSAGE_FORMAT);
+            return;
+        }
+        if (!users.reserve(session, message.getName())) {
+            rejectHandshake(session, "Name " + message.getName() + " is already taken. You will be disconnected");
+            return;
+        }
+        if (cluster == null) {
+            completeJoin(session, message);
+            return;
+        }
+        cluster.claim(message.getName(), granted -> {
+            if (granted) {
+                completeJoin(session, message);
+            } else {
+                rejectHandshake(session, "Name " + message.getName() + " is already taken. You will be disconnected");
+            }
+        });
+    }
+
+    /**
+     * Runs once the name is reserved, across the cluster as well if there is one.
+     */
+    private void completeJoin(Session session, Message message) {
+        TCPConnection tcpConnection = session.getConnection();
+        if (!session.transition(Session.State.AWAITING_NAME, Session.State.JOINED)) {
+            users.release(session);
+            return;
+        }
+        session.cancelTimeout();
+        session.setFeatures(Feature.parse(message.getFeatures()));
+        scheduleIdleCheck(session, heartbeatIntervalNanos);
+        metrics.recordJoin(System.nanoTime() - session.getConnectedAtNanos());
+        negotiateCodec(tcpConnection, message);
+        logger.info("User {} joined, {} users online", tcpConnection.getName(), users.size());
+        if (resumeWindowMillis > 0 && session.supports(Feature.SESSION)) {
+            session.setToken(newToken());
+            sendSessionMessage(tcpConnection, session, "joined");
+        }
+        announceOnline(session);
+        holdForReplay(session, Room.DEFAULT);
+        Room room = rooms.join(session, Room.DEFAULT);
+        sendMessageToRoom(room, getGreetingsMessage(tcpConnection));
+        replayHistory(session, room);
+    }
+
+    /**
+     * Moves the detached session to the new connection, replacing the session it was opened with.
+     * Presence and room membership never changed, so only the roster and the messages after the last
+     * sequence number the client saw in each room are sent.
+     *
+     * A client often reconnects before its old connection is seen to drop; the old connection is then
+     * closed and its session detached here.
+     *
+     * @return false if there is no such session, and the handshake goes on as a new join
+     */
+    private boolean resumeSession(Session pending, Message message) {
+        TCPConnection tcpConnection = pending.getConnection();
+        users.find(message.getName())
+                .filter(joined -> message.getToken().equals(joined.getToken()))
+                .ifPresent(joined -> {
+                    TCPConnection stale = joined.getConnection();
+                    joined.cancelTimeout();
+                    if (detachSession(joined)) {
+                        stale.disconnect();
+                    }
+                });
+        Session session = users.resume(message.getToken(), message.getName(), tcpConnection);
+        if (session == null) {
+            logger.info("No session to resume for {}", message.getName());
+            return false;
+        }
+        pending.cancelTimeout();
+        pending.close();
+        session.cancelTimeout();
+        if (historyCapacity > 0) {
+            session.getRooms().forEach(session::holdRoom);
+        }
+        session.setFeatures(Feature.parse(message.getFeatures()));
+        session.transition(Session.State.DETACHED, Session.State.JOINED);
+        scheduleIdleCheck(session, heartbeatIntervalNanos);
+        metrics.recordResume();
+        negotiateCodec(tcpConnection, message);
+        logger.info("User {} resumed its session", tcpConnection.getName());
+        sendSessionMessage(tcpConnection, session, "resumed");
+        broadcastShards.execute(presenceShard, () -> sendRoster(session));
+        Map<String, Long> lastSeqs = parseLastSeqs(message.getText());
+        for (String roomName : session.getRooms()) {
+            rooms.find(roomName).ifPresent(room ->
+                    catchUp(session, room, lastSeqs.getOrDefault(roomName, 0L)));
+        }
+        return true;
+    }
+
+    private static Map<String, Long> parseLastSeqs(String text) {
+        Map<String, Long> lastSeqs = new HashMap<>();
+        if (text == null) {
+            return lastSeqs;
+        }
+        for (String line : text.split("\n")) {
+            String[] seqAndRoom = line.split(" ", 2);
+            try {
+                String room = seqAndRoom.length == 2 && !seqAndRoom[1].isEmpty() ? seqAndRoom[1] : Room.DEFAULT;
+                lastSeqs.put(room, Long.parseLong(seqAndRoom[0]));
+            } catch (NumberFormatException e) {
+                logger.debug("Skipping malformed resume line {}", line);
+            }
+        }
+        return lastSeqs;
+    }
+
+    /**
+     * Runs on the room's shard, so the catch-up comes before any later message of the room; the room was
+     * held until then, and what was delivered meanwhile is in its history. The part older than the
+     * in-memory history is read from the journal, scanning back no further than the resume window before
+     * the disconnect.
+     */
+    private void catchUp(Session session, Room room, long afterSeq) {
+        broadcastShards.execute(room.getShard(), () -> {
+            List<RecentHistory.Entry> cached = historyAfter(room, afterSeq);
+            long firstCachedSeq = cached.isEmpty() ? Long.MAX_VALUE : cached.get(0).getSeq();
+            CompletableFuture<List<Message>> older = null;
+            if (journal != null && afterSeq > 0 && firstCachedSeq > afterSeq + 1) {
+                long since = session.getDetachedAtMillis() - resumeWindowMillis;
+                older = journal.readLast(room.getName(), MAX_CATCH_UP, since, Long.MAX_VALUE, message ->
+                        message.getSeq() != null && message.getSeq() > afterSeq && message.getSeq() < firstCachedSeq
+                                && room.getName().equals(roomOf(message)));
+            }
+            replay(session, room, older, cached);
+        });
+    }
+
+    private void sendSessionMessage(TCPConnection tcpConnection, Session session, String text) {
+        Message message = botMessage(tcpConnection, text);
+        message.setCommand(Command.SESSION.getWireName());
+        message.setToken(session.getToken());
+        tcpConnection.sendMessage(message);
+    }
+
+    private String newToken() {
+        byte[] token = new byte[TOKEN_BYTES];
+        tokenRandom.nextBytes(token);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(token);
+    }
+
+    /**
+     * The snapshot for the new user and every ONLINE and OFFLINE delta run on one shard, and clients apply
+     * them as set operations, so each client's roster ends up as the server's even when a snapshot
+     * overlaps a delta.
+     */
+    private void announceOnline(Session session) {
+        String name = session.getConnection().getName();
+        broadcastShards.execute(presenceShard, () -> {
+            if (session.getState() != Session.State.JOINED) {
+                return;
+            }
+            sendRoster(session);
+            sendMessageToAllConnections(presenceRecipients(), presenceMessage(Command.ONLINE, name));
+            if (cluster != null) {
+                cluster.online(name);
+            }
+        });
+    }
+
+    /**
+     * Skipped if a new session took the name in the meantime. Local users are not told if another node
+     * holds the name now.
+     */
+    private void announceOffline(String name) {
+        broadcastShards.execute(presenceShard, () -> {
+            if (users.find(name).isPresent()) {
+                return;
+            }
+            if (cluster != null) {
+                cluster.offline(name);
+                if (cluster.isRemoteUser(name)) {
+                    return;
+                }
+            }
+            sendMessageToAllConnections(presenceRecipients(), presenceMessage(Command.OFFLINE, name));
+        });
+    }
+
+    private void sendRoster(Session session) {
+        if (!session.supports(Feature.PRESENCE)) {
+            return;
+        }
+        TCPConnection tcpConnection = session.getConnection();
+        List<String> names = localUserNames();
+        if (cluster != null) {
+            names.addAll(cluster.getRemoteUsers());
+        }
+        for (int from = 0; from < names.size(); from += ROSTER_CHUNK_NAMES) {
+            List<String> chunk = names.subList(from, Math.min(names.size(), from + ROSTER_CHUNK_NAMES));
+            sendMessageToOneConnection(tcpConnection, presenceMessage(Command.ROSTER, String.join("\n", chunk)));
+        }
+    }
+
+    /**
+     * Clients that did not declare {@link Feature#PRESENCE} would print presence frames as chat lines.
+     */
+    private List<Session> presenceRecipients() {
+        List<Session> recipients = new ArrayList<>(users.size());
+        for (Session user : users.joined()) {
+            if (user.supports(Feature.PRESENCE)) {
+                recipients.add(user);
+            }
+        }
+        return recipients;
+    }
 
+    private List<String> localUserNames() {
+        List<String> names = new ArrayList<>(users.size());
+        for (Session user : users.joined()) {
+            if (user.getState() == Session.State.JOINED || user.getState() == Session.State.DETACHED) {
+                names.add(user.getConnection().getName());
+            }
+        }
+        return names;
+    }
+
+    private Message presenceMessage(Command command, String text) {
+        return Message.builder()
+                .name(BOT_NAME)
+                .text(text)
+                .time(LocalTime.now().format(DateTimeFormatter.ISO_TIME))
+                .command(command.getWireName())
+                .build();
+    }
+
+    private void onCommand(Session session, Message message) {
+        TCPConnection tcpConnection = session.getConnection();
+        Command command = Command.forName(message.getCommand()).orElse(null);
+        if (command == Command.LIST) {
+            sendMessageToOneConnection(tcpConnection, botMessage(tcpConnection, "Rooms: " + rooms.rooms().stream()
+                    .map(room -> room.getName() + " (" + room.size() + ")")
+                    .sorted()
+                    .collect(Collectors.joining(", "))));
+            return;
+        }
+        if (command == Command.UPLOAD || command == Command.DOWNLOAD) {
+            if (attachments == null) {
+                sendMessageToOneConnection(tcpConnection, botMessage(tcpConnection, "Attachments are disabled"));
+            } else if (command == Command.UPLOAD) {
+                onUpload(session, message);
+            } else {
+                onDownload(session, message);
+            }
+            return;
+        }
+        if ((command != Command.JOIN && command != Command.LEAVE) || !validateRoomName(message.getRoom())) {
+            sendMessageToOneConnection(tcpConnection,
+                    botMessage(tcpConnection, "Unknown command " + message.getCommand() + " " + message.getRoom()));
+            return;
+        }
+        String roomName = message.getRoom();
+        if (command == Command.JOIN) {
+            if (session.getRooms().contains(roomName)) {
+                sendMessageToOneConnection(tcpConnection, botMessage(tcpConnection, "You are already in room " + roomName));
+                return;
+            }
+            holdForReplay(session, roomName);
+            Room room = rooms.join(session, roomName);
+            if (room == null) {
+                session.releaseRoom(roomName);
+                sendMessageToOneConnection(tcpConnection, botMessage(tcpConnection, "You are already in room " + roomName));
+                return;
+            }
+            sendMessageToRoom(room, roomMessage(tcpConnection, room,
+                    "Client " + tcpConnection.getName() + " joined room " + roomName));
+            replayHistory(session, room);
+        } else {
+            Room room = rooms.leave(session, roomName);
+            if (room == null) {
+                sendMessageToOneConnection(tcpConnection, botMessage(tcpConnection, "You are not in room " + roomName));
+                return;
+            }
+            sendMessageToOneConnection(tcpConnection, botMessage(tcpConnection, "You left room " + roomName));
+            sendMessageToRoom(room, roomMessage(tcpConnection, room,
+                    "Client " + tcpConnection.getName() + " left room " + roomName));
+        }
+    }
+
+    /**
+     * Starts an upload, or tells the uploader where to resume one it started before. Chunks then arrive
+     * through onChunk. Attachments are kept on the node they were uploaded to only.
+     */
+    private void onUpload(Session session, Message message) {
+        TCPConnection tcpConnection = session.getConnection();
+        long id = parseId(message.getToken());
+        AttachmentStore.Attachment attachment = attachments.find(id).orElse(null);
+        if (attachment != null) {
+            if (!attachment.getUploader().equals(tcpConnection.getName())) {
+                sendMessageToOneConnection(tcpConnection, botMessage(tcpConnection, "Attachment id is taken"));
+                return;
+            }
+            sendMessageToOneConnection(tcpConnection, transferMessage(tcpConnection, Command.UPLOAD, id,
+                    String.valueOf(attachment.getReceived())));
+            return;
+        }
+        String[] sizeAndName = message.getText() == null ? new String[0] : message.getText().split(" ", 2);
+        long size = sizeAndName.length == 2 ? parseOffset(sizeAndName[0]) : -1;
+        String fileName = sizeAndName.length == 2 ? fileNameOf(sizeAndName[1]) : "";
+        String roomName = roomOf(message);
+        if (id < 0 || size < 0 || fileName.isEmpty()) {
+            sendMessageToOneConnection(tcpConnection,
+                    botMessage(tcpConnection, "Unknown upload " + message.getToken() + " " + message.getText()));
+            return;
+        }
+        if (size > attachments.getMaxBytes()) {
+            sendMessageToOneConnection(tcpConnection, botMessage(tcpConnection,
+                    fileName + " is larger than " + attachments.getMaxBytes() + " bytes"));
+            return;
+        }
+        if (rooms.find(roomName).filter(room -> room.contains(session)).isEmpty()) {
+            sendMessageToOneConnection(tcpConnection, botMessage(tcpConnection, "You are not in room " + roomName));
+            return;
+        }
+        try {
+            attachment = attachments.create(id, tcpConnection.getName(), roomName, fileName, size);
+        } catch (IOException e) {
+            logger.error("Cannot create attachment {}", id, e);
+            sendMessageToOneConnection(tcpConnection, botMessage(tcpConnection, "Upload of " + fileName + " failed"));
+            return;
+        }
+        if (attachment == null) {
+            sendMessageToOneConnection(tcpConnection, botMessage(tcpConnection, "Attachment id is taken"));
+            return;
+        }
+        logger.info("{} uploads {} ({} bytes) as attachment {}", tcpConnection.getName(), fileName, size, id);
+        sendMessageToOneConnection(tcpConnection, transferMessage(tcpConnection, Command.UPLOAD, id, "0"));
+        if (attachment.isComplete()) {
+            announceAttachment(attachment);
+        }
+    }
+
+    /**
+     * Members of the attachment's room download it from the offset they ask for, so a download cut off
+     * by a reconnect goes on from what the client already has.
+     */
+    private void onDownload(Session session, Message message) {
+        TCPConnection tcpConnection = session.getConnection();
+        long id = parseId(message.getToken());
+        long offset = message.getText() == null || message.getText().isEmpty() ? 0 : parseOffset(message.getText());
+        AttachmentStore.Attachment attachment = attachments.find(id)
+                .filter(AttachmentStore.Attachment::isComplete)
+                .filter(found -> rooms.find(found.getRoom()).filter(room -> room.contains(session)).isPresent())
+                .orElse(null);
+        if (attachment == null) {
+            sendMessageToOneConnection(tcpConnection,
+                    botMessage(tcpConnection, "Attachment " + message.getToken() + " not found"));
+            return;
+        }
+        if (offset < 0 || offset > attachment.getSize()) {
+            sendMessageToOneConnection(tcpConnection, botMessage(tcpConnection, "Wrong offset " + message.getText()));
+            return;
+        }
+        FileChannel file;
+        try {
+            file = attachments.open(attachment);
+        } catch (IOException e) {
+            logger.error("Cannot open attachment {}", id, e);
+            sendMessageToOneConnection(tcpConnection,
+                    botMessage(tcpConnection, "Attachment " + message.getToken() + " not found"));
+            return;
+        }
+        sendMessageToOneConnection(tcpConnection, transferMessage(tcpConnection, Command.DOWNLOAD, id,
+                attachment.getSize() + " " + attachment.getFileName()));
+        tcpConnection.sendFile(id, file, offset, attachment.getSize() - offset);
+    }
+
+    /**
+     * A chat message from the uploader with the attachment id as its token and the file name as its text.
+     */
+    private void announceAttachment(AttachmentStore.Attachment attachment) {
+        rooms.find(attachment.getRoom()).ifPresent(room -> {
+            logger.info("Attachment {} ({} bytes) uploaded", attachment.getId(), attachment.getSize());
+            publishToRoom(room, Message.builder()
+                    .name(attachment.getUploader())
+                    .text(attachment.getFileName())
+                    .time(LocalTime.now().format(DateTimeFormatter.ISO_TIME))
+                    .room(room.isDefault() ? null : room.getName())
+                    .token(Long.toString(attachment.getId()))
+                    .build());
+        });
+    }
+
+    private Message transferMessage(TCPConnection tcpConnection, Command command, long id, String text) {
+        return Message.builder()
+                .name(BOT_NAME)
+                .text(text)
+                .time(tcpConnection.getTime())
+                .command(command.getWireName())
+                .token(Long.toString(id))
+                .build();
+    }
+
+    /**
+     * @return -1 if the id is malformed
+     */
+    private static long parseId(String token) {
+        return token == null ? -1 : parseOffset(token);
+    }
+
+    /**
+     * @return -1 if the number is malformed
+     */
+    private static long parseOffset(String text) {
+        try {
+            return Long.parseLong(text);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Only the last path element is kept, for display; the file is stored under the attachment id.
+     */
+    private static String fileNameOf(String path) {
+        String name = path.substring(Math.max(path.lastIndexOf('/'), path.lastIndexOf('\\')) + 1).trim();
+        if (name.length() > MAX_FILE_NAME_LENGTH || name.chars().anyMatch(Character::isISOControl)) {
+            return "";
+        }
+        return name;
+    }
+
+    /**
+     * Looked up by name and written to the recipient's connection only. The sender gets the same message
+     * back once it is queued for the recipient, as the delivery acknowledgment, the way room members see
+     * their own messages in the broadcast. A recipient on another node is acknowledged once the message
+     * is queued on the link to that node. The sender is always the name the session joined with.
+     */
+    private void onDirectMessage(Session session, Message message) {
+        TCPConnection tcpConnection = session.getConnection();
+        Session recipient = users.find(message.getRecipient())
+                .filter(found -> found.getState() == Session.State.JOINED)
+                .orElse(null);
+        message.setName(tcpConnection.getName());
+        message.setCodec(null);
+        message.setRoom(null);
+        message.setToken(null);
+        message.setFeatures(null);
+        if (recipient == null && (cluster == null || !cluster.sendDirect(message))) {
+            sendMessageToOneConnection(tcpConnection,
+                    botMessage(tcpConnection, "User " + message.getRecipient() + " is not online"));
+            return;
+        }
+        metrics.recordDirectMessage();
+        if (recipient != null) {
+            sendMessageToOneConnection(recipient.getConnection(), message);
+        }
+        if (recipient != session) {
+            sendMessageToOneConnection(tcpConnection, message);
+        }
+    }
+
+    private void onHandshakeTimeout(Session session) {
+        logger.info("Handshake of {} timed out", session.getConnection());
+        rejectHandshake(session, HANDSHAKE_TIMEOUT);
+    }
+
+    /**
+     * Reading the last read time instead of rescheduling on every message keeps the timer work per
+     * connection to one timeout per heartbeat interval.
+     */
+    private void checkIdle(Session session) {
+        if (session.getState() != Session.State.JOINED) {
+            return;
+        }
+        TCPConnection tcpConnection = session.getConnection();
+        long idleNanos = System.nanoTime() - tcpConnection.getLastReadNanos();
+        if (idleNanos >= idleTimeoutNanos) {
+            logger.info("{} was silent for {} ms. Disconnecting", tcpConnection,
+                    TimeUnit.NANOSECONDS.toMillis(idleNanos));
+            metrics.recordIdleDisconnect();
+            tcpConnection.disconnect();
+            return;
+        }
+        if (idleNanos >= heartbeatIntervalNanos) {
+            tcpConnection.ping();
+            scheduleIdleCheck(session, Math.min(heartbeatIntervalNanos, idleTimeoutNanos - idleNanos));
+        } else {
+            scheduleIdleCheck(session, heartbeatIntervalNanos - idleNanos);
+        }
+    }
+
+    /**
+     * Sweeps the joined sessions twice per maxBacklog, so a client that stopped reading is disconnected
+     * even if nothing more is sent to it.
+     */
+    private void scheduleBacklogCheck() {
+        timer.schedule(() -> {
+            for (Session session : users.joined()) {
+                session.getConnection().checkBacklog();
+            }
+            scheduleBacklogCheck();
+        }, Math.max(1, connectionConfig.getMaxBacklogMillis() / 2), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Only clients that declared {@link Feature#HEARTBEAT} are pinged and disconnected when idle: older ones
+     * never answer a PING and would print it as a chat line.
+     */
+    private void scheduleIdleCheck(Session session, long delayNanos) {
+        if (idleTimeoutNanos <= 0 || !session.supports(Feature.HEARTBEAT)) {
+            return;
+        }
+        session.setTimeout(timer.schedule(() -> checkIdle(session), delayNanos, TimeUnit.NANOSECONDS));
+        if (session.getState() != Session.State.JOINED) {
+            session.cancelTimeout();
+        }
+    }
+
+    private void rejectHandshake(Session session, String reason) {
+        if (!session.transition(Session.State.AWAITING_NAME, Session.State.CLOSED)) {
+            return;
+        }
+        metrics.recordHandshakeFailure();
+        TCPConnection tcpConnection = session.getConnection();
+        sendMessageToOneConnection(tcpConnection, botMessage(tcpConnection, reason));
+        tcpConnection.disconnect();
     }
 
     private Message getGreetingsMessage(TCPConnection tcpConnection) {
+        return botMessage(tcpConnection, "Client " + tcpConnection.getName() + " connected");
+    }
+
+    private Message botMessage(TCPConnection tcpConnection, String text) {
         return Message.builder()
                 .name(BOT_NAME)
-                .text("Client " + tcpConnection.getName() + " connected")
+                .text(text)
                 .time(tcpConnection.getTime())
                 .build();
     }
 
+    private Message roomMessage(TCPConnection tcpConnection, Room room, String text) {
+        Message message = botMessage(tcpConnection, text);
+        message.setRoom(room.isDefault() ? null : room.getName());
+        return message;
+    }
+
+    private void negotiateCodec(TCPConnection tcpConnection, Message message) {
+        if (message.getCodec() == null) {
+            return;
+        }
+        MessageCodecs.forName(message.getCodec()).ifPresent(codec -> {
+            sendMessageToOneConnection(tcpConnection,
+                    Message.builder()
+                            .name(BOT_NAME)
+                            .text("Codec " + codec.getName() + " accepted")
+                            .time(tcpConnection.getTime())
+                            .codec(codec.getName())
+                            .build());
+            tcpConnection.setCodec(codec);
+        });
+    }
+
     private boolean validateUserName(String name) {
-        boolean isValid = true;
-        //todo: create check user name if it in list
-        logger.info("Name is valid: {}", isValid);
+        boolean isValid = name != null && !name.isBlank() && !BOT_NAME.equals(name)
+                && name.chars().noneMatch(Character::isISOControl);
+        logger.debug("Name is valid: {}", isValid);
         return isValid;
     }
 
-    private void onNewUserEntersChat(TCPConnection tcpConnection, Message message) {
-        final String userName = message.getName();
-        tcpConnection.setName(userName);
-        userNames.add(userName);
-        logger.info("User name {} added to list of user names {}:", userName, userNames);
-        tcpConnections.add(tcpConnection);
-        logger.info("TCPConnection {} added to list of TCPConnections {}", tcpConnection, tcpConnections);
+    private boolean validateRoomName(String room) {
+        return room != null && !room.isEmpty() && room.length() <= MAX_ROOM_NAME_LENGTH
+                && room.chars().noneMatch(Character::isWhitespace);
     }
 
     private void sendMessageToOneConnection(TCPConnection tcpConnection, Message message) {
-        logger.info("Send message server -> one connection {}", message);
+        auditLog.sent(tcpConnection.getName(), message);
         tcpConnection.sendMessage(message);
     }
 
-    private void sendMessageToAllConnections(Message message) {
-        logger.info("Send message server -> all connections : {}", message);
-        tcpConnections.forEach(x -> x.sendMessage(message));
+    /**
+     * Fans the message out on the room's shard: one room's messages stay in order while rooms
+     * on different shards are broadcast in parallel.
+     */
+    private void sendMessageToRoom(Room room, Message message) {
+        broadcastShards.execute(room.getShard(), () -> sendMessageToAllConnections(room.getMembers(), message));
+    }
+
+    /**
+     * Forwarded to the other nodes from the room's shard, so every node gets one room's messages from
+     * this node in order.
+     */
+    private void publishToRoom(Room room, Message message) {
+        metrics.recordPublished();
+        broadcastShards.execute(room.getShard(), () -> {
+            deliverToRoom(room, message);
+            if (cluster != null) {
+                cluster.publish(message);
+            }
+        });
+    }
+
+    /**
+     * Runs on the room's shard. Chat messages are also kept in the room's recent history with the frames
+     * just broadcast, and journaled, so the journal keeps each room's delivery order. Sequence numbers
+     * are per node: a forwarded message gets the next one of the receiving node's room.
+     */
+    private void deliverToRoom(Room room, Message message) {
+        message.setSeq(room.nextSeq());
+        Map<MessageCodec, Frame> frames = sendMessageToAllConnections(room.getMembers(), message, room.getName());
+        if (!room.getHistory().add(System.currentTimeMillis(), message, frames)) {
+            for (Session session : room.getMembers()) {
+                session.holdOver(room.getName(), message);
+            }
+            metrics.recordHistorySkipped();
+            logger.warn("Message {} of room {} is too large for the room history, {}", message.getSeq(),
+                    room.getName(), journal != null ? "replays read it from the journal" : "replays leave it out");
+        }
+        if (journal != null) {
+            journal.append(room.getName(), message);
+        }
+    }
+
+    /**
+     * Holds the room's chat back from a joining session until its replay has run. Chat delivered after
+     * the join but before the replay is then replayed in order instead of arriving first, which would
+     * make the client take the older history for duplicates. Without an in-memory history the messages
+     * in between could not be replayed, so the session is not held.
+     */
+    private void holdForReplay(Session session, String roomName) {
+        if (historyReplayCount > 0 && historyCapacity > 0) {
+            session.holdRoom(roomName);
+        }
+    }
+
+    /**
+     * Queued behind the greeting on the room's shard, so history follows it. Cached frames are written
+     * as they are; only messages older than the room's in-memory history are read from the journal.
+     */
+    private void replayHistory(Session session, Room room) {
+        if (historyReplayCount <= 0) {
+            return;
+        }
+        long since = historyReplayMaxAgeMillis > 0 ? System.currentTimeMillis() - historyReplayMaxAgeMillis : 0;
+        broadcastShards.execute(room.getShard(), () -> {
+            RecentHistory history = room.getHistory();
+            List<RecentHistory.Entry> cached = history.last(historyReplayCount, since);
+            CompletableFuture<List<Message>> older = null;
+            boolean noHistory = history.getCapacity() == 0;
+            if (journal != null && cached.size() < historyReplayCount && (noHistory || history.isComplete())) {
+                long before = noHistory ? Long.MAX_VALUE : room.getCreatedMillis();
+                older = journal.readLast(room.getName(), historyReplayCount - cached.size(), since, before,
+                        message -> room.getName().equals(roomOf(message)));
+            }
+            replay(session, room, older, cached);
+        });
+    }
+
+    /**
+     * Runs on the room's shard, which holds the room for the session until the replay is sent. Messages
+     * older than the cached entries are read from the journal off the shard; back on the shard they are
+     * sent first, then the cached entries and what the room delivered during the read.
+     *
+     * @param older the journal read, null if there is none
+     */
+    private void replay(Session session, Room room, CompletableFuture<List<Message>> older,
+                        List<RecentHistory.Entry> cached) {
+        if (older == null) {
+            sendReplay(session, room, Collections.emptyList(), cached);
+            return;
+        }
+        long lastSeq = room.getLastSeq();
+        older.whenComplete((messages, e) -> broadcastShards.execute(room.getShard(), () -> {
+            if (e != null) {
+                logger.error("Cannot read the journal of room {}", room.getName(), e);
+            }
+            List<RecentHistory.Entry> entries = new ArrayList<>(cached);
+            entries.addAll(historyAfter(room, lastSeq));
+            sendReplay(session, room, messages != null ? messages : Collections.emptyList(), entries);
+        }));
+    }
+
+    private void sendReplay(Session session, Room room, List<Message> older, List<RecentHistory.Entry> cached) {
+        sendReplay(session, room, older, cached, Collections.emptyMap());
+    }
+
+    /**
+     * Runs on the room's shard. Entries the history skipped for their size were held over for the session
+     * if they came while it was held; older ones are first read from the journal off the shard, and the
+     * replay is sent once every skipped entry has been looked up.
+     *
+     * @param skipped messages read for skipped entries by seq, null for those the journal did not have
+     */
+    private void sendReplay(Session session, Room room, List<Message> older, List<RecentHistory.Entry> cached,
+                            Map<Long, Message> skipped) {
+        Map<Long, Message> heldOver = session.getHeldOver(room.getName());
+        List<Long> missing = journal == null ? Collections.emptyList() : cached.stream()
+                .filter(RecentHistory.Entry::isSkipped)
+                .map(RecentHistory.Entry::getSeq)
+                .filter(seq -> seq != null && !skipped.containsKey(seq) && !heldOver.containsKey(seq))
+                .collect(Collectors.toList());
+        if (!missing.isEmpty()) {
+            long lastSeq = room.getLastSeq();
+            journal.readLast(room.getName(), missing.size(), 0, Long.MAX_VALUE, message ->
+                            missing.contains(message.getSeq()) && room.getName().equals(roomOf(message)))
+                    .whenComplete((messages, e) -> broadcastShards.execute(room.getShard(), () -> {
+                        if (e != null) {
+                            logger.error("Cannot read the journal of room {}", room.getName(), e);
+                        }
+                        Map<Long, Message> found = new HashMap<>(skipped);
+                        missing.forEach(seq -> found.put(seq, null));
+                        if (messages != null) {
+                            messages.forEach(message -> found.put(message.getSeq(), message));
+                        }
+                        List<RecentHistory.Entry> entries = new ArrayList<>(cached);
+                        entries.addAll(historyAfter(room, lastSeq));
+                        sendReplay(session, room, older, entries, found);
+                    }));
+            return;
+        }
+        TCPConnection tcpConnection = session.getConnection();
+        for (Message message : older) {
+            tcpConnection.sendMessage(message);
+        }
+        for (RecentHistory.Entry entry : cached) {
+            if (!entry.isSkipped()) {
+                tcpConnection.sendFrame(entry.frame(tcpConnection.getCodec()));
+                continue;
+            }
+            Message message = heldOver.containsKey(entry.getSeq()) ? heldOver.get(entry.getSeq())
+                    : skipped.get(entry.getSeq());
+            if (message != null) {
+                tcpConnection.sendMessage(message);
+            }
+        }
+        session.releaseRoom(room.getName());
+    }
+
+    private static List<RecentHistory.Entry> historyAfter(Room room, long afterSeq) {
+        RecentHistory history = room.getHistory();
+        List<RecentHistory.Entry> entries = new ArrayList<>();
+        for (RecentHistory.Entry entry : history.last(history.getCapacity(), 0)) {
+            Long seq = entry.getSeq();
+            if (seq != null && seq > afterSeq) {
+                entries.add(entry);
+            }
+        }
+        return entries;
+    }
+
+    private static String roomOf(Message message) {
+        return message.getRoom() == null ? Room.DEFAULT : message.getRoom();
+    }
+
+    private Map<MessageCodec, Frame> sendMessageToAllConnections(Collection<Session> recipients, Message message) {
+        return sendMessageToAllConnections(recipients, message, null);
+    }
+
+    /**
+     * @param room skips the sessions holding this room, if not null
+     * @return the frames the message was encoded to, by codec
+     */
+    private Map<MessageCodec, Frame> sendMessageToAllConnections(Collection<Session> recipients, Message message,
+                                                                 String room) {
+        BroadcastEvent event = new BroadcastEvent();
+        event.begin();
+        long start = System.nanoTime();
+        int sent = 0;
+        Map<MessageCodec, Frame> frames = new IdentityHashMap<>();
+        for (Session session : recipients) {
+            if (session.getState() != Session.State.JOINED || room != null && session.isHeld(room)) {
+                continue;
+            }
+            TCPConnection x = session.getConnection();
+            x.sendFrame(frames.computeIfAbsent(x.getCodec(), codec -> codec.encode(message)));
+            sent++;
+        }
+        metrics.recordBroadcast(sent, System.nanoTime() - start);
+        auditLog.broadcast(message, sent);
+        event.end();
+        if (event.shouldCommit()) {
+            event.room = roomOf(message);
+            event.recipients = sent;
+            event.encodings = frames.size();
+            event.commit();
+        }
+        return frames;
     }
 }
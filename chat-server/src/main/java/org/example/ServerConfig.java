@@ -0,0 +1,85 @@
+package org.example;
+
+import lombok.Builder;
+import lombok.Getter;
+
+import java.util.Collections;
+import java.util.Set;
+
+@Getter
+@Builder(toBuilder = true)
+public class ServerConfig {
+    @Builder.Default
+    private final int port = 9999;
+    @Builder.Default
+    private final ConnectionConfig connectionConfig = ConnectionConfig.defaults();
+    @Builder.Default
+    private final long handshakeTimeoutMillis = 10_000;
+    /**
+     * A joined connection silent for this long is sent a PING, if it declared {@link Feature#HEARTBEAT}.
+     */
+    @Builder.Default
+    private final long heartbeatIntervalMillis = 30_000;
+    /**
+     * A joined connection with heartbeats silent for this long is disconnected, 0 to keep idle connections.
+     */
+    @Builder.Default
+    private final long idleTimeoutMillis = 90_000;
+    /**
+     * How long a disconnected session can be resumed with its token, 0 to end sessions on disconnect.
+     */
+    @Builder.Default
+    private final long resumeWindowMillis = 30_000;
+    /**
+     * Resolution of the handshake and idle timeouts.
+     */
+    @Builder.Default
+    private final long timerTickMillis = 100;
+    @Builder.Default
+    private final int broadcastShards = Runtime.getRuntime().availableProcessors();
+    /**
+     * Tasks a broadcast shard queues before the threads submitting to it have to wait.
+     */
+    @Builder.Default
+    private final int shardQueueCapacity = 65_536;
+    @Builder.Default
+    private final int historyCapacity = 200;
+    @Builder.Default
+    private final long historyMaxBytes = 256 * 1024;
+    @Builder.Default
+    private final int historyReplayCount = 50;
+    /**
+     * Replayed messages are no older than this, 0 for no limit.
+     */
+    @Builder.Default
+    private final long historyReplayMaxAgeMillis = 0;
+    /**
+     * Share of messages written to the audit log, 0 to record traced users only.
+     */
+    @Builder.Default
+    private final double auditSampleRate = 0.01;
+    @Builder.Default
+    private final int auditQueueCapacity = 8192;
+    /**
+     * Users whose messages are always audited.
+     */
+    @Builder.Default
+    private final Set<String> auditTracedUsers = Collections.emptySet();
+    /**
+     * Port of the loopback plain-text metrics endpoint, 0 to publish metrics over JMX only.
+     */
+    @Builder.Default
+    private final int metricsPort = 0;
+    /**
+     * Null disables the message journal; history is then kept in memory only.
+     */
+    private final JournalConfig journalConfig;
+    /**
+     * Null runs a standalone server.
+     */
+    private final ClusterConfig clusterConfig;
+    /**
+     * Null disables attachments.
+     */
+    private final AttachmentConfig attachmentConfig;
+}
@@ -0,0 +1,264 @@
+package org.example;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Server-level counters and latency histograms. Gauges (users, rooms, backlogs, shard queues) are read from the
+ * registries when asked for, so recording only touches striped counters.
+ */
+public class ServerMetrics implements ServerMetricsMBean {
+    private static final double NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final double NANOS_PER_MICRO = TimeUnit.MICROSECONDS.toNanos(1);
+
+    private final UserRegistry users;
+    private final RoomRegistry rooms;
+    private final PartitionedExecutor shards;
+    private final Cluster cluster;
+    private final Meter joins = new Meter();
+    private final Meter leaves = new Meter();
+    private final LongAdder handshakeFailures = new LongAdder();
+    private final LatencyHistogram handshakeNanos = new LatencyHistogram();
+    private final LongAdder idleDisconnects = new LongAdder();
+    private final Meter resumes = new Meter();
+    private final Meter messagesPublished = new Meter();
+    private final Meter directMessages = new Meter();
+    private final LongAdder historySkipped = new LongAdder();
+    private final LongAdder broadcastRecipients = new LongAdder();
+    private final LatencyHistogram broadcastNanos = new LatencyHistogram();
+
+    /**
+     * @param cluster null for a standalone server
+     */
+    public ServerMetrics(UserRegistry users, RoomRegistry rooms, PartitionedExecutor shards, Cluster cluster) {
+        this.users = users;
+        this.rooms = rooms;
+        this.shards = shards;
+        this.cluster = cluster;
+    }
+
+    void recordJoin(long handshakeNanos) {
+        joins.mark();
+        this.handshakeNanos.record(handshakeNanos);
+    }
+
+    void recordLeave() {
+        leaves.mark();
+    }
+
+    void recordHandshakeFailure() {
+        handshakeFailures.increment();
+    }
+
+    void recordResume() {
+        resumes.mark();
+    }
+
+    void recordIdleDisconnect() {
+        idleDisconnects.increment();
+    }
+
+    void recordPublished() {
+        messagesPublished.mark();
+    }
+
+    void recordDirectMessage() {
+        directMessages.mark();
+    }
+
+    void recordHistorySkipped() {
+        historySkipped.increment();
+    }
+
+    void recordBroadcast(int recipients, long nanos) {
+        broadcastRecipients.add(recipients);
+        broadcastNanos.record(nanos);
+    }
+
+    LatencyHistogram getHandshakeNanos() {
+        return handshakeNanos;
+    }
+
+    LatencyHistogram getBroadcastNanos() {
+        return broadcastNanos;
+    }
+
+    UserRegistry getUsers() {
+        return users;
+    }
+
+    PartitionedExecutor getShards() {
+        return shards;
+    }
+
+    @Override
+    public int getJoinedUsers() {
+        return users.size();
+    }
+
+    @Override
+    public int getRooms() {
+        return rooms.rooms().size();
+    }
+
+    @Override
+    public long getJoins() {
+        return joins.getCount();
+    }
+
+    @Override
+    public double getJoinsPerSecond() {
+        return joins.getRatePerSecond();
+    }
+
+    @Override
+    public long getLeaves() {
+        return leaves.getCount();
+    }
+
+    @Override
+    public double getLeavesPerSecond() {
+        return leaves.getRatePerSecond();
+    }
+
+    @Override
+    public long getHandshakeFailures() {
+        return handshakeFailures.sum();
+    }
+
+    @Override
+    public double getHandshakeMillisP50() {
+        return handshakeNanos.percentile(50) / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getHandshakeMillisP99() {
+        return handshakeNanos.percentile(99) / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public int getDetachedSessions() {
+        return users.detachedSize();
+    }
+
+    @Override
+    public long getResumes() {
+        return resumes.getCount();
+    }
+
+    @Override
+    public long getIdleDisconnects() {
+        return idleDisconnects.sum();
+    }
+
+    @Override
+    public long getMessagesPublished() {
+        return messagesPublished.getCount();
+    }
+
+    @Override
+    public double getMessagesPublishedPerSecond() {
+        return messagesPublished.getRatePerSecond();
+    }
+
+    @Override
+    public long getDirectMessages() {
+        return directMessages.getCount();
+    }
+
+    @Override
+    public double getDirectMessagesPerSecond() {
+        return directMessages.getRatePerSecond();
+    }
+
+    @Override
+    public long getHistoryMessagesSkipped() {
+        return historySkipped.sum();
+    }
+
+    @Override
+    public int getClusterLinks() {
+        return cluster == null ? 0 : cluster.getLinks();
+    }
+
+    @Override
+    public int getRemoteUsers() {
+        return cluster == null ? 0 : cluster.getRemoteUsers().size();
+    }
+
+    @Override
+    public long getClusterMessagesForwarded() {
+        return cluster == null ? 0 : cluster.getForwardedMessages();
+    }
+
+    @Override
+    public long getClusterMessagesReceived() {
+        return cluster == null ? 0 : cluster.getReceivedMessages();
+    }
+
+    @Override
+    public long getBroadcasts() {
+        return broadcastNanos.getCount();
+    }
+
+    @Override
+    public long getBroadcastRecipients() {
+        return broadcastRecipients.sum();
+    }
+
+    @Override
+    public double getBroadcastMicrosP50() {
+        return broadcastNanos.percentile(50) / NANOS_PER_MICRO;
+    }
+
+    @Override
+    public double getBroadcastMicrosP99() {
+        return broadcastNanos.percentile(99) / NANOS_PER_MICRO;
+    }
+
+    @Override
+    public double getBroadcastMicrosMax() {
+        return broadcastNanos.getMax() / NANOS_PER_MICRO;
+    }
+
+    @Override
+    public long getTotalOutboundBacklog() {
+        long total = 0;
+        for (Session session : users.joined()) {
+            total += session.getConnection().getOutboundBacklog();
+        }
+        return total;
+    }
+
+    @Override
+    public long getMaxOutboundBacklog() {
+        long max = 0;
+        for (Session session : users.joined()) {
+            max = Math.max(max, session.getConnection().getOutboundBacklog());
+        }
+        return max;
+    }
+
+    @Override
+    public long getShardQueueDepth() {
+        long total = 0;
+        for (int shard = 0; shard < shards.getShardCount(); shard++) {
+            total += shards.getQueueDepth(shard);
+        }
+        return total;
+    }
+
+    @Override
+    public long getMaxShardQueueDepth() {
+        long max = 0;
+        for (int shard = 0; shard < shards.getShardCount(); shard++) {
+            max = Math.max(max, shards.getQueueDepth(shard));
+        }
+        return max;
+    }
+
+    @Override
+    public long getShardSubmissionsBlocked() {
+        return shards.getBlockedSubmissions();
+    }
+}
@@ -0,0 +1,68 @@
+package org.example;
+
+public interface ServerMetricsMBean {
+    int getJoinedUsers();
+
+    int getRooms();
+
+    long getJoins();
+
+    double getJoinsPerSecond();
+
+    long getLeaves();
+
+    double getLeavesPerSecond();
+
+    long getHandshakeFailures();
+
+    double getHandshakeMillisP50();
+
+    double getHandshakeMillisP99();
+
+    int getDetachedSessions();
+
+    long getResumes();
+
+    long getIdleDisconnects();
+
+    long getMessagesPublished();
+
+    double getMessagesPublishedPerSecond();
+
+    long getDirectMessages();
+
+    double getDirectMessagesPerSecond();
+
+    /**
+     * Room messages too large for the in-memory history, which replays read from the journal if there is one.
+     */
+    long getHistoryMessagesSkipped();
+
+    int getClusterLinks();
+
+    int getRemoteUsers();
+
+    long getClusterMessagesForwarded();
+
+    long getClusterMessagesReceived();
+
+    long getBroadcasts();
+
+    long getBroadcastRecipients();
+
+    double getBroadcastMicrosP50();
+
+    double getBroadcastMicrosP99();
+
+    double getBroadcastMicrosMax();
+
+    long getTotalOutboundBacklog();
+
+    long getMaxOutboundBacklog();
+
+    long getShardQueueDepth();
+
+    long getMaxShardQueueDepth();
+
+    long getShardSubmissionsBlocked();
+}
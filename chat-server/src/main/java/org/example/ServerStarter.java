@@ -1,10 +1,141 @@
 package org.example;
 
+import java.net.InetSocketAddress;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Starts a server from chat.* system properties. Unset properties keep the config classes' defaults, and the
+ * journal and attachments stay off unless chat.journal.enabled or chat.attachments.enabled is true.
+ */
 public class ServerStarter {
     public static void main(String[] args) {
-        int port = 9999;
+        String mode = System.getProperty("chat.server.mode", "blocking");
+        int eventLoopThreads = Integer.getInteger("chat.server.eventLoops", Runtime.getRuntime().availableProcessors());
+
+        ConnectionConfig connectionDefaults = ConnectionConfig.defaults();
+        ConnectionConfig connectionConfig = ConnectionConfig.builder()
+                .outboundQueueCapacity(Integer.getInteger("chat.connection.queueCapacity",
+                        connectionDefaults.getOutboundQueueCapacity()))
+                .slowConsumerPolicy(SlowConsumerPolicy.valueOf(System.getProperty("chat.connection.slowConsumerPolicy",
+                        connectionDefaults.getSlowConsumerPolicy().name())))
+                .maxBacklogMillis(Long.getLong("chat.connection.maxBacklogMillis",
+                        connectionDefaults.getMaxBacklogMillis()))
+                .maxFlushDelayMicros(Long.getLong("chat.connection.maxFlushDelayMicros",
+                        connectionDefaults.getMaxFlushDelayMicros()))
+                .maxBatchBytes(Integer.getInteger("chat.connection.maxBatchBytes", connectionDefaults.getMaxBatchBytes()))
+                .maxMessagesPerSecond(Double.parseDouble(System.getProperty("chat.connection.maxMessagesPerSecond",
+                        String.valueOf(connectionDefaults.getMaxMessagesPerSecond()))))
+                .messageBurst(Integer.getInteger("chat.connection.messageBurst", connectionDefaults.getMessageBurst()))
+                .maxBytesPerSecond(Long.getLong("chat.connection.maxBytesPerSecond",
+                        connectionDefaults.getMaxBytesPerSecond()))
+                .byteBurst(Long.getLong("chat.connection.byteBurst", connectionDefaults.getByteBurst()))
+                .rateLimitPolicy(RateLimitPolicy.valueOf(System.getProperty("chat.connection.rateLimitPolicy",
+                        connectionDefaults.getRateLimitPolicy().name())))
+                .build();
+
+        JournalConfig journalDefaults = JournalConfig.builder().build();
+        JournalConfig journalConfig = !Boolean.getBoolean("chat.journal.enabled")
+                ? null
+                : JournalConfig.builder()
+                .directory(Paths.get(System.getProperty("chat.journal.dir", journalDefaults.getDirectory().toString())))
+                .segmentBytes(Integer.getInteger("chat.journal.segmentBytes", journalDefaults.getSegmentBytes()))
+                .retainedSegments(Integer.getInteger("chat.journal.retainedSegments",
+                        journalDefaults.getRetainedSegments()))
+                .queueCapacity(Integer.getInteger("chat.journal.queueCapacity", journalDefaults.getQueueCapacity()))
+                .fsyncPolicy(FsyncPolicy.valueOf(System.getProperty("chat.journal.fsyncPolicy",
+                        journalDefaults.getFsyncPolicy().name())))
+                .fsyncIntervalMillis(Long.getLong("chat.journal.fsyncIntervalMillis",
+                        journalDefaults.getFsyncIntervalMillis()))
+                .maxReadRecords(Integer.getInteger("chat.journal.maxReadRecords", journalDefaults.getMaxReadRecords()))
+                .build();
+
+        String nodeId = System.getProperty("chat.cluster.nodeId", "");
+        ClusterConfig clusterDefaults = ClusterConfig.builder().build();
+        ClusterConfig clusterConfig = nodeId.isEmpty()
+                ? null
+                : ClusterConfig.builder()
+                .nodeId(nodeId)
+                .nodes(parseNodes(System.getProperty("chat.cluster.nodes", "")))
+                .reconnectMillis(Long.getLong("chat.cluster.reconnectMillis", clusterDefaults.getReconnectMillis()))
+                .claimTimeoutMillis(Long.getLong("chat.cluster.claimTimeoutMillis",
+                        clusterDefaults.getClaimTimeoutMillis()))
+                .build();
+
+        AttachmentConfig attachmentDefaults = AttachmentConfig.builder().build();
+        AttachmentConfig attachmentConfig = !Boolean.getBoolean("chat.attachments.enabled")
+                ? null
+                : AttachmentConfig.builder()
+                .directory(Paths.get(System.getProperty("chat.attachments.dir",
+                        attachmentDefaults.getDirectory().toString())))
+                .maxBytes(Long.getLong("chat.attachments.maxBytes", attachmentDefaults.getMaxBytes()))
+                .retentionMillis(Long.getLong("chat.attachments.retentionMillis",
+                        attachmentDefaults.getRetentionMillis()))
+                .build();
+
+        ServerConfig defaults = ServerConfig.builder().build();
+        ServerConfig serverConfig = ServerConfig.builder()
+                .port(Integer.getInteger("chat.server.port", defaults.getPort()))
+                .connectionConfig(connectionConfig)
+                .handshakeTimeoutMillis(Long.getLong("chat.server.handshakeTimeoutMillis",
+                        defaults.getHandshakeTimeoutMillis()))
+                .heartbeatIntervalMillis(Long.getLong("chat.server.heartbeatIntervalMillis",
+                        defaults.getHeartbeatIntervalMillis()))
+                .idleTimeoutMillis(Long.getLong("chat.server.idleTimeoutMillis", defaults.getIdleTimeoutMillis()))
+                .resumeWindowMillis(Long.getLong("chat.server.resumeWindowMillis", defaults.getResumeWindowMillis()))
+                .timerTickMillis(Long.getLong("chat.server.timerTickMillis", defaults.getTimerTickMillis()))
+                .broadcastShards(Integer.getInteger("chat.server.broadcastShards", defaults.getBroadcastShards()))
+                .shardQueueCapacity(Integer.getInteger("chat.server.shardQueueCapacity",
+                        defaults.getShardQueueCapacity()))
+                .historyCapacity(Integer.getInteger("chat.history.capacity", defaults.getHistoryCapacity()))
+                .historyMaxBytes(Long.getLong("chat.history.maxBytes", defaults.getHistoryMaxBytes()))
+                .historyReplayCount(Integer.getInteger("chat.history.replayCount", defaults.getHistoryReplayCount()))
+                .historyReplayMaxAgeMillis(Long.getLong("chat.history.replayMaxAgeMillis",
+                        defaults.getHistoryReplayMaxAgeMillis()))
+                .auditSampleRate(Double.parseDouble(System.getProperty("chat.audit.sampleRate",
+                        String.valueOf(defaults.getAuditSampleRate()))))
+                .auditQueueCapacity(Integer.getInteger("chat.audit.queueCapacity", defaults.getAuditQueueCapacity()))
+                .auditTracedUsers(Arrays.stream(System.getProperty("chat.audit.traceUsers", "").split(","))
+                        .map(String::trim)
+                        .filter(name -> !name.isEmpty())
+                        .collect(Collectors.toSet()))
+                .metricsPort(Integer.getInteger("chat.metrics.port", defaults.getMetricsPort()))
+                .journalConfig(journalConfig)
+                .clusterConfig(clusterConfig)
+                .attachmentConfig(attachmentConfig)
+                .build();
+
+        Server server = new Server(serverConfig);
+        Runtime.getRuntime().addShutdownHook(new Thread(server::stop, "server-shutdown"));
+        if ("nio".equals(mode)) {
+            server.startNioServer(eventLoopThreads);
+        } else if ("virtual".equals(mode)) {
+            server.startServer(ConnectionExecutors.virtualThreads());
+        } else {
+            server.startServer();
+        }
+    }
 
-        Server server = new Server(port);
-        server.startServer();
+    /**
+     * @param nodes comma-separated id=host:port entries
+     */
+    private static Map<String, InetSocketAddress> parseNodes(String nodes) {
+        Map<String, InetSocketAddress> parsed = new LinkedHashMap<>();
+        for (String node : nodes.split(",")) {
+            if (node.isBlank()) {
+                continue;
+            }
+            String[] idAndAddress = node.trim().split("=", 2);
+            int colon = idAndAddress.length == 2 ? idAndAddress[1].lastIndexOf(':') : -1;
+            if (colon < 0) {
+                throw new IllegalArgumentException("Cluster node must be id=host:port: " + node);
+            }
+            parsed.put(idAndAddress[0], new InetSocketAddress(idAndAddress[1].substring(0, colon),
+                    Integer.parseInt(idAndAddress[1].substring(colon + 1))));
+        }
+        return parsed;
     }
 }
@@ -0,0 +1,157 @@
+package org.example;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class Session {
+    public enum State {
+        AWAITING_NAME,
+        JOINED,
+        /**
+         * The connection is gone but the session keeps its name and rooms until it is resumed or expires.
+         */
+        DETACHED,
+        CLOSED
+    }
+
+    private volatile TCPConnection connection;
+    private final long connectedAtNanos;
+    private final AtomicReference<State> state;
+    private final Set<String> rooms;
+    private final Map<String, Map<Long, Message>> heldRooms;
+    private volatile HashedWheelTimer.Timeout timeout;
+    private volatile String token;
+    private volatile Set<Feature> features = EnumSet.noneOf(Feature.class);
+    private volatile long detachedAtMillis;
+
+    public Session(TCPConnection connection) {
+        this.connection = connection;
+        this.connectedAtNanos = System.nanoTime();
+        this.state = new AtomicReference<>(State.AWAITING_NAME);
+        this.rooms = ConcurrentHashMap.newKeySet();
+        this.heldRooms = new ConcurrentHashMap<>();
+    }
+
+    public TCPConnection getConnection() {
+        return connection;
+    }
+
+    /**
+     * Moves a detached session to the connection that resumed it; the caller then makes it JOINED.
+     */
+    void attach(TCPConnection connection) {
+        this.connection = connection;
+    }
+
+    public String getToken() {
+        return token;
+    }
+
+    void setToken(String token) {
+        this.token = token;
+    }
+
+    public boolean supports(Feature feature) {
+        return features.contains(feature);
+    }
+
+    /**
+     * Set from the handshake, by a resume as well: the client may have been updated in between.
+     */
+    void setFeatures(Set<Feature> features) {
+        this.features = features;
+    }
+
+    public long getDetachedAtMillis() {
+        return detachedAtMillis;
+    }
+
+    void setDetachedAtMillis(long detachedAtMillis) {
+        this.detachedAtMillis = detachedAtMillis;
+    }
+
+    public long getConnectedAtNanos() {
+        return connectedAtNanos;
+    }
+
+    public State getState() {
+        return state.get();
+    }
+
+    public boolean transition(State from, State to) {
+        return state.compareAndSet(from, to);
+    }
+
+    /**
+     * @return the state the session was in before closing
+     */
+    public State close() {
+        return state.getAndSet(State.CLOSED);
+    }
+
+    public Collection<String> getRooms() {
+        return Collections.unmodifiableSet(rooms);
+    }
+
+    void addRoom(String room) {
+        rooms.add(room);
+    }
+
+    void removeRoom(String room) {
+        rooms.remove(room);
+    }
+
+    /**
+     * The room's chat is not broadcast to a held session: it gets it with the room's history instead,
+     * once its replay or catch-up has run.
+     */
+    void holdRoom(String room) {
+        heldRooms.putIfAbsent(room, new HashMap<>());
+    }
+
+    void releaseRoom(String room) {
+        heldRooms.remove(room);
+    }
+
+    public boolean isHeld(String room) {
+        return heldRooms.containsKey(room);
+    }
+
+    /**
+     * Keeps a message the room's history skipped for its size until the replay, which could otherwise miss
+     * it in a journal the writer has not caught up with yet. Only called on the room's shard.
+     */
+    void holdOver(String room, Message message) {
+        Map<Long, Message> heldOver = heldRooms.get(room);
+        if (heldOver != null) {
+            heldOver.put(message.getSeq(), message);
+        }
+    }
+
+    /**
+     * @return the messages held over for the room by seq, read on the room's shard
+     */
+    Map<Long, Message> getHeldOver(String room) {
+        return heldRooms.getOrDefault(room, Collections.emptyMap());
+    }
+
+    /**
+     * A session has one pending timeout at a time: the handshake timeout, then the next idle check.
+     */
+    public void setTimeout(HashedWheelTimer.Timeout timeout) {
+        this.timeout = timeout;
+    }
+
+    public void cancelTimeout() {
+        HashedWheelTimer.Timeout timeout = this.timeout;
+        if (timeout != null) {
+            timeout.cancel();
+        }
+    }
+}
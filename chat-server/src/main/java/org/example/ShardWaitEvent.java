@@ -0,0 +1,18 @@
+package org.example;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("org.example.ShardWait")
+@Label("Shard Wait")
+@Category({"Chat", "Server"})
+@Description("Time a broadcast task waited in its shard's queue before it started")
+@StackTrace(false)
+class ShardWaitEvent extends Event {
+    @Label("Shard")
+    int shard;
+}
@@ -0,0 +1,112 @@
+package org.example;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Sessions by connection, joined sessions by user name and detached sessions by token. Every operation
+ * is O(1) and lock-free; a name stays reserved exactly as long as the session holding it is registered,
+ * detached sessions included.
+ */
+public class UserRegistry {
+    private final Map<TCPConnection, Session> sessionsByConnection;
+    private final Map<String, Session> sessionsByName;
+    private final Map<String, Session> detachedByToken;
+
+    public UserRegistry() {
+        this.sessionsByConnection = new ConcurrentHashMap<>();
+        this.sessionsByName = new ConcurrentHashMap<>();
+        this.detachedByToken = new ConcurrentHashMap<>();
+    }
+
+    public Session open(TCPConnection connection) {
+        Session session = new Session(connection);
+        sessionsByConnection.put(connection, session);
+        return session;
+    }
+
+    public Session get(TCPConnection connection) {
+        return sessionsByConnection.get(connection);
+    }
+
+    /**
+     * @return false if the name is already held by another session
+     */
+    public boolean reserve(Session session, String name) {
+        if (sessionsByName.putIfAbsent(name, session) != null) {
+            return false;
+        }
+        session.getConnection().setName(name);
+        return true;
+    }
+
+    public void release(Session session) {
+        String name = session.getConnection().getName();
+        if (name != null) {
+            sessionsByName.remove(name, session);
+        }
+    }
+
+    public Optional<Session> find(String name) {
+        return Optional.ofNullable(sessionsByName.get(name));
+    }
+
+    public Session remove(TCPConnection connection) {
+        Session session = sessionsByConnection.remove(connection);
+        if (session != null) {
+            release(session);
+        }
+        return session;
+    }
+
+    /**
+     * Forgets the session's connection but keeps its name until {@link #resume} or {@link #expire}.
+     */
+    public void detach(Session session) {
+        sessionsByConnection.remove(session.getConnection(), session);
+        detachedByToken.put(session.getToken(), session);
+    }
+
+    /**
+     * Moves the detached session with this token and name to the connection, replacing the session the
+     * connection was opened with.
+     *
+     * @return null if there is no such detached session
+     */
+    public Session resume(String token, String name, TCPConnection connection) {
+        Session session = detachedByToken.get(token);
+        if (session == null || !session.getConnection().getName().equals(name)
+                || !detachedByToken.remove(token, session)) {
+            return null;
+        }
+        session.attach(connection);
+        connection.setName(name);
+        sessionsByConnection.put(connection, session);
+        return session;
+    }
+
+    /**
+     * @return false if the session was resumed in the meantime
+     */
+    public boolean expire(Session session) {
+        if (session.getToken() == null || !detachedByToken.remove(session.getToken(), session)) {
+            return false;
+        }
+        release(session);
+        return true;
+    }
+
+    public int detachedSize() {
+        return detachedByToken.size();
+    }
+
+    public Collection<Session> joined() {
+        return sessionsByName.values();
+    }
+
+    public int size() {
+        return sessionsByName.size();
+    }
+}
@@ -0,0 +1,126 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntUnaryOperator;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class MessageJournalTest {
+    private static final int SEGMENT_BYTES = 4 * 1024 * 1024;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void rebuildsRoomIndexOnReopen() throws Exception {
+        try (MessageJournal journal = open()) {
+            append(journal, "a", 1);
+            append(journal, "b", 2);
+            append(journal, "a", 3);
+            append(journal, "b", 4);
+            append(journal, "a", 5);
+        }
+        try (MessageJournal journal = open()) {
+            assertEquals(5, journal.getNextOffset());
+            assertEquals(List.of(1L, 3L, 5L), readSeqs(journal, "a"));
+            assertEquals(List.of(2L, 4L), readSeqs(journal, "b"));
+            append(journal, "b", 6);
+        }
+        try (MessageJournal journal = open()) {
+            assertEquals(6, journal.getNextOffset());
+            assertEquals(List.of(2L, 4L, 6L), readSeqs(journal, "b"));
+        }
+    }
+
+    @Test
+    void dropsRecordTornInItsFrame() throws Exception {
+        writeThreeAndTruncateLast(length -> JournalSegment.HEADER_BYTES + length / 2);
+    }
+
+    @Test
+    void dropsRecordTornInItsHeader() throws Exception {
+        writeThreeAndTruncateLast(length -> Integer.BYTES + 2);
+    }
+
+    /**
+     * The record appended over the torn one must not be followed by its leftovers on the next reopen.
+     */
+    private void writeThreeAndTruncateLast(IntUnaryOperator keptBytes) throws Exception {
+        try (MessageJournal journal = open()) {
+            append(journal, "a", 1);
+            append(journal, "a", 2);
+            append(journal, "a", 3, "a much longer last message, so the record appended over it ends inside it");
+        }
+        Path segment = segment();
+        int last = lastRecordPosition(segment);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE, StandardOpenOption.READ)) {
+            ByteBuffer length = ByteBuffer.allocate(Integer.BYTES);
+            channel.read(length, last);
+            channel.truncate(last + keptBytes.applyAsInt(length.flip().getInt()));
+        }
+        try (MessageJournal journal = open()) {
+            assertEquals(2, journal.getNextOffset());
+            assertEquals(List.of(1L, 2L), readSeqs(journal, "a"));
+            append(journal, "a", 4);
+        }
+        try (MessageJournal journal = open()) {
+            assertEquals(3, journal.getNextOffset());
+            assertEquals(List.of(1L, 2L, 4L), readSeqs(journal, "a"));
+        }
+    }
+
+    private MessageJournal open() {
+        return new MessageJournal(JournalConfig.builder()
+                .directory(directory)
+                .segmentBytes(SEGMENT_BYTES)
+                .fsyncPolicy(FsyncPolicy.EVERY_BATCH)
+                .build());
+    }
+
+    private static void append(MessageJournal journal, String room, long seq) {
+        append(journal, room, seq, "message " + seq);
+    }
+
+    private static void append(MessageJournal journal, String room, long seq, String text) {
+        journal.append(room, Message.builder().name("alice").text(text).room(room).seq(seq).build());
+    }
+
+    private static List<Long> readSeqs(MessageJournal journal, String room) throws Exception {
+        return journal.readLast(room, 100, 0, Long.MAX_VALUE, message -> room.equals(message.getRoom()))
+                .get(5, TimeUnit.SECONDS)
+                .stream()
+                .map(Message::getSeq)
+                .collect(Collectors.toList());
+    }
+
+    private Path segment() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            List<Path> segments = files.collect(Collectors.toList());
+            assertEquals(1, segments.size());
+            return segments.get(0);
+        }
+    }
+
+    private static int lastRecordPosition(Path segment) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(segment));
+        int position = 0;
+        int last = -1;
+        while (buffer.getInt(position) > 0) {
+            last = position;
+            position += JournalSegment.HEADER_BYTES + buffer.getInt(position);
+        }
+        return last;
+    }
+}
@@ -0,0 +1,47 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RecentHistoryTest {
+    private static final MessageCodec CODEC = MessageCodecs.BINARY;
+
+    @Test
+    void keepsSeqOfMessageLargerThanByteCap() {
+        RecentHistory history = new RecentHistory(10, 200);
+        assertTrue(add(history, 1, "small"));
+        assertFalse(add(history, 2, "x".repeat(500)));
+        assertTrue(add(history, 3, "small"));
+
+        List<RecentHistory.Entry> entries = history.last(10, 0);
+        assertEquals(List.of(1L, 2L, 3L), entries.stream().map(RecentHistory.Entry::getSeq).collect(Collectors.toList()));
+        assertEquals(List.of(false, true, false),
+                entries.stream().map(RecentHistory.Entry::isSkipped).collect(Collectors.toList()));
+        assertTrue(history.isComplete());
+    }
+
+    @Test
+    void skippedMessageTakesNoBytes() {
+        RecentHistory history = new RecentHistory(10, 200);
+        add(history, 1, "a".repeat(60));
+        add(history, 2, "x".repeat(500));
+        add(history, 3, "b".repeat(60));
+
+        assertEquals(List.of(1L, 2L, 3L),
+                history.last(10, 0).stream().map(RecentHistory.Entry::getSeq).collect(Collectors.toList()));
+    }
+
+    private static boolean add(RecentHistory history, long seq, String text) {
+        Message message = Message.builder().name("alice").text(text).seq(seq).build();
+        Map<MessageCodec, Frame> frames = Collections.singletonMap(CODEC, CODEC.encode(message));
+        return history.add(seq, message, frames);
+    }
+}